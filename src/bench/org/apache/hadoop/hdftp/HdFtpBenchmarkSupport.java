@@ -0,0 +1,156 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File system and user of the benchmarks. The benchmarks run against the local file system under
+ * hdftp.bench.dir (java.io.tmpdir/hdftp-bench by default), or against the cluster of the hdfs-site.xml
+ * set by hdftp.bench.conf. The trees are created once and reused by the following runs.
+ */
+public class HdFtpBenchmarkSupport {
+
+	/**
+	 * Size of the file opened by the stream benchmarks
+	 */
+	public static final int FILE_SIZE = 1048576;
+
+	private HdfsFileSystemFactory factory;
+
+	private HdFtpUser user;
+
+	private HdfsFileSystemView view;
+
+	/**
+	 * Constructor - connect to the file system and create the home directory of the benchmark user
+	 *
+	 * @param cacheTtl time to live of the metadata cache in milliseconds, 0 is disabled
+	 */
+	public HdFtpBenchmarkSupport(int cacheTtl) throws Exception {
+		String userName = System.getProperty("user.name");
+		String conf = System.getProperty("hdftp.bench.conf");
+		String home;
+		if (conf == null) {
+			File dir = new File(System.getProperty("hdftp.bench.dir", System.getProperty("java.io.tmpdir") + "/hdftp-bench"));
+			dir.mkdirs();
+			conf = writeLocalConf(dir).getPath();
+			home = dir.getAbsolutePath() + "/home";
+		} else {
+			home = System.getProperty("hdftp.bench.dir", "/tmp/hdftp-bench");
+		}
+		factory = new HdfsFileSystemFactory(userName, conf);
+		factory.setMetadataCache(new HdfsMetadataCache(cacheTtl, cacheTtl, 10000, 1000));
+
+		user = new HdFtpUser(userName);
+		user.setHomeDirectory(home);
+		user.setGroup(userName);
+		List<Authority> authorities = new ArrayList<Authority>();
+		authorities.add(new WritePermission());
+		user.setAuthorities(authorities);
+		view = (HdfsFileSystemView) factory.createFileSystemView(user);
+	}
+
+	private static File writeLocalConf(File dir) throws IOException {
+		File conf = new File(dir, "hdfs-site.xml");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(conf), "UTF-8");
+		try {
+			writer.write("<?xml version=\"1.0\"?>\n<configuration>\n"
+					+ "  <property><name>fs.defaultFS</name><value>file:///</value></property>\n"
+					+ "</configuration>\n");
+		} finally {
+			writer.close();
+		}
+		return conf;
+	}
+
+	/**
+	 * Get the file system factory, e.g. to change the transfer settings of the view
+	 */
+	public HdfsFileSystemFactory getFactory() {
+		return factory;
+	}
+
+	/**
+	 * Get the file system view of the benchmark user
+	 */
+	public HdfsFileSystemView getView() {
+		return view;
+	}
+
+	/**
+	 * Create a directory of empty files under the home directory unless it already has them
+	 *
+	 * @param name path of the directory relative to the home directory
+	 * @param entries number of files
+	 */
+	public void createDirectory(String name, int entries) throws IOException {
+		FileSystem fs = factory.getFileSystem();
+		Path dir = new Path(user.getHomeDirectory() + name);
+		if (fs.exists(dir)) {
+			// the files are created in order, so the last one tells a complete directory
+			if (fs.exists(new Path(dir, "file-" + (entries - 1))) && !fs.exists(new Path(dir, "file-" + entries))) {
+				return;
+			}
+			fs.delete(dir, true);
+		}
+		fs.mkdirs(dir);
+		for (int i = 0; i < entries; i++) {
+			fs.create(new Path(dir, "file-" + i), true).close();
+		}
+	}
+
+	/**
+	 * Create a file of FILE_SIZE bytes under the home directory unless it already exists
+	 *
+	 * @param name path of the file relative to the home directory
+	 */
+	public void createFile(String name) throws IOException {
+		createFile(name, FILE_SIZE);
+	}
+
+	/**
+	 * Create a file under the home directory unless it already exists
+	 *
+	 * @param name path of the file relative to the home directory
+	 * @param size bytes of the file, a multiple of 64 KB
+	 */
+	public void createFile(String name, long size) throws IOException {
+		FileSystem fs = factory.getFileSystem();
+		Path file = new Path(user.getHomeDirectory() + name);
+		if (fs.exists(file)) {
+			FileStatus status = fs.getFileStatus(file);
+			if (status.getLen() == size) {
+				return;
+			}
+		}
+		FSDataOutputStream out = fs.create(file, true);
+		try {
+			byte[] buf = new byte[65536];
+			for (long written = 0; written < size; written += buf.length) {
+				out.write(buf);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Release the view and close the file system
+	 */
+	public void close() {
+		view.dispose();
+		factory.close();
+	}
+}
@@ -0,0 +1,192 @@
+package org.apache.hadoop.hdftp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Minimal FTP client of the load test, passive binary transfers only
+ */
+public class HdFtpLoadClient {
+
+	private static final int TIMEOUT = 60000;	// milliseconds
+
+	private String host;
+
+	private Socket control;
+
+	private BufferedReader reader;
+
+	private Writer writer;
+
+	private String lastReply;
+
+	/**
+	 * Constructor - connect to the server and read the greeting
+	 */
+	public HdFtpLoadClient(String host, int port) throws IOException {
+		this.host = host;
+		control = new Socket();
+		control.connect(new InetSocketAddress(host, port), TIMEOUT);
+		control.setSoTimeout(TIMEOUT);
+		control.setTcpNoDelay(true);
+		reader = new BufferedReader(new InputStreamReader(control.getInputStream(), "UTF-8"));
+		writer = new OutputStreamWriter(control.getOutputStream(), "UTF-8");
+		expect(readReply(), 220);
+	}
+
+	/**
+	 * Log in and switch to binary transfers
+	 */
+	public void login(String user, String password) throws IOException {
+		int code = command("USER " + user);
+		if (code == 331) {
+			code = command("PASS " + password);
+		}
+		expect(code, 230);
+		expect(command("TYPE I"), 200);
+	}
+
+	/**
+	 * Send a command and read its reply
+	 *
+	 * @return reply code
+	 */
+	public int command(String command) throws IOException {
+		writer.write(command + "\r\n");
+		writer.flush();
+		return readReply();
+	}
+
+	/**
+	 * Read a reply, the lines of a multi-line reply are skipped
+	 *
+	 * @return reply code
+	 */
+	private int readReply() throws IOException {
+		String line = reader.readLine();
+		if (line == null || line.length() < 3) {
+			throw new IOException("Connection closed by the server");
+		}
+		if (line.length() > 3 && line.charAt(3) == '-') {
+			String end = line.substring(0, 3) + " ";
+			do {
+				line = reader.readLine();
+				if (line == null) {
+					throw new IOException("Connection closed by the server");
+				}
+			} while (!line.startsWith(end));
+		}
+		lastReply = line;
+		return Integer.parseInt(line.substring(0, 3));
+	}
+
+	private void expect(int code, int expected) throws IOException {
+		if (code != expected) {
+			throw new IOException("Unexpected reply: " + lastReply);
+		}
+	}
+
+	/**
+	 * Open the data connection of a transfer command
+	 */
+	private Socket openData(String command) throws IOException {
+		expect(command("PASV"), 227);
+		String[] fields = lastReply.substring(lastReply.indexOf('(') + 1, lastReply.indexOf(')')).split(",");
+		int port = Integer.parseInt(fields[4].trim()) * 256 + Integer.parseInt(fields[5].trim());
+		Socket data = new Socket();
+		data.connect(new InetSocketAddress(host, port), TIMEOUT);
+		data.setSoTimeout(TIMEOUT);
+		int code = command(command);
+		if (code != 150 && code != 125) {
+			data.close();
+			throw new IOException("Unexpected reply: " + lastReply);
+		}
+		return data;
+	}
+
+	/**
+	 * Read the data of a transfer command to the end
+	 *
+	 * @return number of bytes read
+	 */
+	private long download(String command, byte[] buf) throws IOException {
+		Socket data = openData(command);
+		long bytes = 0;
+		try {
+			InputStream in = data.getInputStream();
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				bytes += n;
+			}
+		} finally {
+			data.close();
+		}
+		expect(readReply(), 226);
+		return bytes;
+	}
+
+	/**
+	 * List a directory
+	 *
+	 * @return number of bytes of the listing
+	 */
+	public long list(String dir, byte[] buf) throws IOException {
+		return download("LIST " + dir, buf);
+	}
+
+	/**
+	 * Download a file
+	 *
+	 * @return number of bytes downloaded
+	 */
+	public long retrieve(String file, byte[] buf) throws IOException {
+		return download("RETR " + file, buf);
+	}
+
+	/**
+	 * Upload a file of the content of the buffer repeated to the size
+	 */
+	public void store(String file, long size, byte[] buf) throws IOException {
+		Socket data = openData("STOR " + file);
+		try {
+			OutputStream out = data.getOutputStream();
+			for (long written = 0; written < size; ) {
+				int n = (int) Math.min(buf.length, size - written);
+				out.write(buf, 0, n);
+				written += n;
+			}
+			out.flush();
+		} finally {
+			data.close();
+		}
+		expect(readReply(), 226);
+	}
+
+	/**
+	 * Delete a file
+	 */
+	public void delete(String file) throws IOException {
+		expect(command("DELE " + file), 250);
+	}
+
+	/**
+	 * Log out and close the connection
+	 */
+	public void close() {
+		try {
+			command("QUIT");
+		} catch (IOException e) {
+			// the connection is closed anyway
+		}
+		try {
+			control.close();
+		} catch (IOException e) {}
+	}
+}
@@ -0,0 +1,482 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * End-to-end load test: an embedded HdFtp server on an in-process MiniDFSCluster driven by concurrent
+ * FTP clients with a mixed LIST/RETR/STOR/DELE workload. It reports ops/sec, MB/s, latency percentiles
+ * and the HDFS calls of HdFtp and the RPCs of the NameNode. The test is set by system properties:
+ * <ul>
+ * <li>hdftp.load.clients - number of concurrent clients, 8 by default</li>
+ * <li>hdftp.load.duration - measured seconds, 60 by default</li>
+ * <li>hdftp.load.warmup - seconds before the measurement, 10 by default</li>
+ * <li>hdftp.load.file-size - bytes of the uploaded files, 1048576 by default</li>
+ * <li>hdftp.load.files - files uploaded by each client before the test, 20 by default</li>
+ * <li>hdftp.load.mix - weights of the operations, LIST:20,RETR:40,STOR:30,DELE:10 by default</li>
+ * <li>hdftp.load.datanodes - DataNodes of the MiniDFSCluster, 1 by default</li>
+ * <li>hdftp.load.fs - fs.defaultFS of an existing file system used instead of a MiniDFSCluster,
+ * e.g. file:/// which keeps the files under the working directory</li>
+ * <li>hdftp.load.user - FTP user, it owns the files. load by default, the OS user on a local file system</li>
+ * <li>hdftp.load.dir - working directory, java.io.tmpdir/hdftp-load by default</li>
+ * <li>hdftp.load.conf.&lt;key&gt; - hdftp.properties setting of the server, e.g. hdftp.load.conf.read-ahead-depth=0</li>
+ * </ul>
+ * The MiniDFSCluster needs the test jars of hadoop-hdfs and hadoop-common and the jars of the NameNode
+ * and DataNode on the class path.
+ */
+public class HdFtpLoadTest {
+
+	private static final String PREFIX = "hdftp.load.";
+
+	private static final String PASSWORD = "load";
+
+	private static final String[] OPERATIONS = { "LIST", "RETR", "STOR", "DELE" };
+
+	private int clients = Integer.getInteger(PREFIX + "clients", 8);
+
+	private int duration = Integer.getInteger(PREFIX + "duration", 60);
+
+	private int warmup = Integer.getInteger(PREFIX + "warmup", 10);
+
+	private long fileSize = Long.getLong(PREFIX + "file-size", 1048576);
+
+	private int files = Integer.getInteger(PREFIX + "files", 20);
+
+	private int dataNodes = Integer.getInteger(PREFIX + "datanodes", 1);
+
+	private String mix = System.getProperty(PREFIX + "mix", "LIST:20,RETR:40,STOR:30,DELE:10");
+
+	private String fsUri = System.getProperty(PREFIX + "fs");
+
+	private String userName = System.getProperty(PREFIX + "user");
+
+	private File workDir = new File(System.getProperty(PREFIX + "dir", System.getProperty("java.io.tmpdir") + "/hdftp-load"));
+
+	private int[] weights = new int[OPERATIONS.length];
+
+	private Object cluster = null;
+
+	private volatile long measureStart;
+
+	private volatile long measureEnd;
+
+	/**
+	 * Latencies of an operation in microseconds, kept by a client and merged at the end
+	 */
+	private static class Samples {
+		long[] values = new long[1024];
+		int size = 0;
+		long bytes = 0;
+		long errors = 0;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		void addAll(Samples samples) {
+			for (int i = 0; i < samples.size; i++) {
+				add(samples.values[i]);
+			}
+			bytes += samples.bytes;
+			errors += samples.errors;
+		}
+
+		long percentile(double p) {
+			if (size == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			return sorted[(int) Math.min(size - 1, Math.ceil(p * size) - 1)];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new HdFtpLoadTest().run();
+	}
+
+	public void run() throws Exception {
+		parseMix();
+		File home = new File(workDir, "server");
+		new File(home, "conf").mkdirs();
+		String defaultFs = fsUri != null ? fsUri : startCluster();
+		if (userName == null) {
+			// only the OS user can own the files of a local file system
+			userName = defaultFs.startsWith("file:") ? System.getProperty("user.name") : "load";
+		}
+		FtpServer server = null;
+		try {
+			int port = freePort();
+			writeConfig(home, port, defaultFs);
+			HdFtpServer.loadConfig(home.getAbsolutePath() + "/");
+			server = HdFtpServer.getConfiguration();
+			server.start();
+			System.out.println("HdFtp server on port " + port + ", file system " + defaultFs);
+
+			Samples[] results = drive(port);
+			report(results);
+		} finally {
+			if (server != null) {
+				HdFtpServer.stop(server);
+			}
+			stopCluster();
+		}
+	}
+
+	private void parseMix() {
+		for (String entry : mix.split(",")) {
+			String[] pair = entry.trim().split(":");
+			int op = Arrays.asList(OPERATIONS).indexOf(pair[0].trim().toUpperCase());
+			if (op < 0 || pair.length != 2) {
+				throw new IllegalArgumentException("Unknown operation in " + PREFIX + "mix: " + entry);
+			}
+			weights[op] = Integer.parseInt(pair[1].trim());
+		}
+	}
+
+	/**
+	 * Start a MiniDFSCluster, it's loaded by reflection so the test compiles without the hadoop test jars
+	 *
+	 * @return fs.defaultFS of the cluster
+	 */
+	private String startCluster() throws Exception {
+		Configuration conf = new HdfsConfiguration();
+		conf.set("hdfs.minidfs.basedir", new File(workDir, "dfs").getAbsolutePath());
+		Class<?> builderClass;
+		try {
+			builderClass = Class.forName("org.apache.hadoop.hdfs.MiniDFSCluster$Builder");
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("MiniDFSCluster is not on the class path, put the hadoop-hdfs and hadoop-common"
+					+ " test jars to lib/bench or set " + PREFIX + "fs", e);
+		}
+		Object builder = builderClass.getConstructor(Configuration.class).newInstance(conf);
+		builderClass.getMethod("numDataNodes", int.class).invoke(builder, dataNodes);
+		builderClass.getMethod("format", boolean.class).invoke(builder, true);
+		cluster = builderClass.getMethod("build").invoke(builder);
+		cluster.getClass().getMethod("waitActive").invoke(cluster);
+		URI uri = (URI) cluster.getClass().getMethod("getURI").invoke(cluster);
+		System.out.println("MiniDFSCluster started with " + dataNodes + " DataNodes: " + uri);
+		return uri.toString();
+	}
+
+	private void stopCluster() {
+		if (cluster != null) {
+			try {
+				cluster.getClass().getMethod("shutdown").invoke(cluster);
+			} catch (Exception e) {
+				System.err.println("Shutdown MiniDFSCluster error: " + e);
+			}
+			cluster = null;
+		}
+	}
+
+	static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Write hdftp.properties, users.properties and hdfs-site.xml of the embedded server
+	 */
+	private void writeConfig(File home, int port, String defaultFs) throws Exception {
+		Properties props = new Properties();
+		props.setProperty("port", String.valueOf(port));
+		props.setProperty("data-ports", "0");
+		props.setProperty("hdfs-superuser", System.getProperty("user.name"));
+		props.setProperty("trash-dir", "");
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith(PREFIX + "conf.")) {
+				props.setProperty(name.substring(PREFIX.length() + 5), System.getProperty(name));
+			}
+		}
+		store(props, new File(home, "conf/hdftp.properties"));
+
+		String user = "ftpserver.user." + userName + ".";
+		Properties users = new Properties();
+		users.setProperty(user + "userpassword", md5(PASSWORD));
+		// a local file system gets the files under the working directory instead of its root
+		String ftpHome = defaultFs.startsWith("file:") ? new File(workDir, "data").getAbsolutePath() : "/hdftp-load";
+		users.setProperty(user + "homedirectory", ftpHome);
+		users.setProperty(user + "enableflag", "true");
+		users.setProperty(user + "writepermission", "true");
+		users.setProperty(user + "maxloginnumber", "0");
+		users.setProperty(user + "maxloginperip", "0");
+		users.setProperty(user + "idletime", "0");
+		users.setProperty(user + "uploadrate", "0");
+		users.setProperty(user + "downloadrate", "0");
+		store(users, new File(home, "conf/users.properties"));
+
+		Configuration conf = new Configuration(false);
+		conf.set("fs.defaultFS", defaultFs);
+		OutputStream out = new FileOutputStream(new File(home, "conf/hdfs-site.xml"));
+		try {
+			conf.writeXml(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	static void store(Properties props, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			props.store(out, "written by HdFtpLoadTest");
+		} finally {
+			out.close();
+		}
+	}
+
+	static String md5(String password) throws Exception {
+		byte[] digest = MessageDigest.getInstance("MD5").digest(password.getBytes("UTF-8"));
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Run the clients through the warmup and the measurement
+	 *
+	 * @return samples of each operation
+	 */
+	private Samples[] drive(final int port) throws Exception {
+		final Samples[][] clientSamples = new Samples[clients][];
+		final Throwable[] failures = new Throwable[clients];
+		final CountDownLatch ready = new CountDownLatch(clients);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[clients];
+		for (int i = 0; i < clients; i++) {
+			final int client = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						clientSamples[client] = runClient(client, port, ready, start);
+					} catch (Throwable e) {
+						failures[client] = e;
+						ready.countDown();
+					}
+				}
+			}, "load-client-" + i);
+			threads[i].start();
+		}
+		ready.await();
+		System.out.println(clients + " clients ready, warmup " + warmup + " s, measurement " + duration + " s");
+		long now = System.nanoTime();
+		measureStart = now + warmup * 1000000000L;
+		measureEnd = measureStart + duration * 1000000000L;
+		start.countDown();
+		sleepUntil(measureStart);
+		Map<String, Long> hdftpBefore = hdftpRpcs();
+		Map<String, Long> nameNodeBefore = nameNodeRpcs();
+		sleepUntil(measureEnd);
+		Map<String, Long> hdftpAfter = hdftpRpcs();
+		Map<String, Long> nameNodeAfter = nameNodeRpcs();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Samples[] results = new Samples[OPERATIONS.length];
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			results[op] = new Samples();
+		}
+		for (int i = 0; i < clients; i++) {
+			if (failures[i] != null) {
+				System.err.println("Client " + i + " failed: " + failures[i]);
+				continue;
+			}
+			for (int op = 0; op < OPERATIONS.length; op++) {
+				results[op].addAll(clientSamples[i][op]);
+			}
+		}
+		printRpcs("HdFtp HDFS calls", hdftpBefore, hdftpAfter);
+		printRpcs("NameNode RPCs", nameNodeBefore, nameNodeAfter);
+		return results;
+	}
+
+	private static void sleepUntil(long nanoTime) throws InterruptedException {
+		long millis;
+		while ((millis = (nanoTime - System.nanoTime()) / 1000000) > 0) {
+			Thread.sleep(millis);
+		}
+	}
+
+	/**
+	 * Run a client: upload its files, then run random operations until the measurement ends
+	 */
+	private Samples[] runClient(int client, int port, CountDownLatch ready, CountDownLatch start) throws Exception {
+		Random random = new Random(client);
+		byte[] buf = new byte[65536];
+		random.nextBytes(buf);
+		Samples[] samples = new Samples[OPERATIONS.length];
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			samples[op] = new Samples();
+		}
+		int total = 0;
+		for (int weight : weights) {
+			total += weight;
+		}
+
+		HdFtpLoadClient ftp = new HdFtpLoadClient("127.0.0.1", port);
+		try {
+			ftp.login(userName, PASSWORD);
+			String dir = "c" + client;
+			ftp.command("MKD " + dir);		// it exists after an earlier run on the same file system
+			List<String> names = new ArrayList<String>();
+			int next = 0;
+			for (; next < files; next++) {
+				ftp.store(dir + "/f" + next, fileSize, buf);
+				names.add(dir + "/f" + next);
+			}
+			ready.countDown();
+			start.await();
+
+			while (System.nanoTime() < measureEnd) {
+				int pick = random.nextInt(total);
+				int op = 0;
+				while (pick >= weights[op]) {
+					pick -= weights[op++];
+				}
+				// keep a file to read and to delete
+				if ((op == 1 || op == 3) && names.size() < 2) {
+					op = 2;
+				}
+				long begin = System.nanoTime();
+				long bytes = 0;
+				boolean failed = false;
+				try {
+					switch (op) {
+					case 0:
+						ftp.list(dir, buf);
+						break;
+					case 1:
+						bytes = ftp.retrieve(names.get(random.nextInt(names.size())), buf);
+						break;
+					case 2:
+						String name = dir + "/f" + next++;
+						ftp.store(name, fileSize, buf);
+						names.add(name);
+						bytes = fileSize;
+						break;
+					default:
+						ftp.delete(names.remove(random.nextInt(names.size())));
+					}
+				} catch (IOException e) {
+					failed = true;
+				}
+				long end = System.nanoTime();
+				if (begin >= measureStart && end <= measureEnd) {
+					if (failed) {
+						samples[op].errors++;
+					} else {
+						samples[op].add((end - begin) / 1000);
+						samples[op].bytes += bytes;
+					}
+				}
+			}
+		} finally {
+			ftp.close();
+		}
+		return samples;
+	}
+
+	/**
+	 * Get the HDFS calls of HdFtp by operation, from the MBean of HdFtpMetrics
+	 */
+	private static Map<String, Long> hdftpRpcs() throws Exception {
+		Map<String, Long> rpcs = new TreeMap<String, Long>();
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(HdFtpMetrics.DOMAIN + ":type=Server,name=HdFtp");
+		if (!mbeans.isRegistered(name)) {
+			return rpcs;
+		}
+		for (String count : (String[]) mbeans.getAttribute(name, "RpcCounts")) {
+			int pos = count.lastIndexOf('=');
+			rpcs.put(count.substring(0, pos), Long.parseLong(count.substring(pos + 1)));
+		}
+		return rpcs;
+	}
+
+	/**
+	 * Get the RPCs of the in-process NameNode by method, from its RPC metrics
+	 */
+	private static Map<String, Long> nameNodeRpcs() throws Exception {
+		Map<String, Long> rpcs = new TreeMap<String, Long>();
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : mbeans.queryNames(new ObjectName("Hadoop:service=NameNode,name=RpcDetailedActivityForPort*"), null)) {
+			for (MBeanAttributeInfo attribute : mbeans.getMBeanInfo(name).getAttributes()) {
+				String method = attribute.getName();
+				if (method.endsWith("NumOps")) {
+					Object value = mbeans.getAttribute(name, method);
+					if (value instanceof Number) {
+						String key = method.substring(0, method.length() - 6);
+						Long sum = rpcs.get(key);
+						rpcs.put(key, (sum == null ? 0 : sum) + ((Number) value).longValue());
+					}
+				}
+			}
+		}
+		return rpcs;
+	}
+
+	private static void printRpcs(String title, Map<String, Long> before, Map<String, Long> after) {
+		if (after.isEmpty()) {
+			System.out.println(title + ": not available");
+			return;
+		}
+		long total = 0;
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> entry : after.entrySet()) {
+			Long base = before.get(entry.getKey());
+			long count = entry.getValue() - (base == null ? 0 : base);
+			if (count > 0) {
+				sb.append(String.format("  %-28s %10d%n", entry.getKey(), count));
+				total += count;
+			}
+		}
+		System.out.println(title + ": " + total);
+		System.out.print(sb);
+	}
+
+	private void report(Samples[] results) {
+		System.out.println(String.format("%-6s %10s %10s %10s %10s %10s %8s", "op", "count", "ops/s", "MB/s", "p50 ms", "p99 ms", "errors"));
+		long count = 0;
+		long bytes = 0;
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			Samples samples = results[op];
+			System.out.println(String.format("%-6s %10d %10.1f %10.2f %10.2f %10.2f %8d", OPERATIONS[op], samples.size,
+					(double) samples.size / duration, samples.bytes / 1048576.0 / duration,
+					samples.percentile(0.5) / 1000.0, samples.percentile(0.99) / 1000.0, samples.errors));
+			count += samples.size;
+			bytes += samples.bytes;
+		}
+		System.out.println(String.format("%-6s %10d %10.1f %10.2f", "total", count, (double) count / duration, bytes / 1048576.0 / duration));
+	}
+}
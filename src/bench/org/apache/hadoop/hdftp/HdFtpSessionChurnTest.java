@@ -0,0 +1,182 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.hadoop.conf.Configuration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session churn test of the proxy users' dfs object pool: concurrent clients log in, REIN, PASS
+ * while logged in, fail a login and QUIT over and over on an embedded server with hdfs-proxy-users
+ * on the local file system. Every session has to release its pooled dfs objects and the server must
+ * not leak file handles. The test is set by system properties:
+ * <ul>
+ * <li>hdftp.churn.clients - number of concurrent clients, 8 by default</li>
+ * <li>hdftp.churn.sessions - sessions of each client, 20 by default</li>
+ * <li>hdftp.churn.dir - working directory, java.io.tmpdir/hdftp-churn by default</li>
+ * </ul>
+ */
+public class HdFtpSessionChurnTest {
+
+	private static final String PREFIX = "hdftp.churn.";
+
+	private static final String PASSWORD = "churn";
+
+	private static final long FD_TOLERANCE = 16;
+
+	private int clients = Integer.getInteger(PREFIX + "clients", 8);
+
+	private int sessions = Integer.getInteger(PREFIX + "sessions", 20);
+
+	private File workDir = new File(System.getProperty(PREFIX + "dir", System.getProperty("java.io.tmpdir") + "/hdftp-churn"));
+
+	// only the OS user can own the files of a local file system
+	private String userName = System.getProperty("user.name");
+
+	public static void main(String[] args) throws Exception {
+		new HdFtpSessionChurnTest().run();
+	}
+
+	public void run() throws Exception {
+		File home = new File(workDir, "server");
+		new File(home, "conf").mkdirs();
+		new File(workDir, "data").mkdirs();
+		int port = HdFtpLoadTest.freePort();
+		writeConfig(home, port);
+		HdFtpServer.loadConfig(home.getAbsolutePath() + "/");
+		FtpServer server = HdFtpServer.getConfiguration();
+		server.start();
+		try {
+			// the first session loads the classes and opens the pooled dfs object
+			session(port);
+			long fdsBefore = openFileDescriptors();
+
+			final AtomicInteger failures = new AtomicInteger();
+			Thread[] threads = new Thread[clients];
+			for (int i = 0; i < clients; i++) {
+				final int finalPort = port;
+				threads[i] = new Thread(new Runnable() {
+					public void run() {
+						for (int s = 0; s < sessions; s++) {
+							try {
+								session(finalPort);
+							} catch (Exception e) {
+								failures.incrementAndGet();
+								System.err.println("Session failed: " + e);
+							}
+						}
+					}
+				}, "churn-client-" + i);
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			// ftpserver closes the sessions asynchronously after QUIT
+			int borrowed = -1;
+			for (int i = 0; i < 50 && borrowed != 0; i++) {
+				Thread.sleep(100);
+				borrowed = metric("ProxyFileSystemsBorrowed");
+			}
+			long fdsAfter = openFileDescriptors();
+
+			System.out.println(clients * sessions + " sessions, " + failures.get() + " failed");
+			System.out.println("pooled dfs objects: " + metric("ProxyFileSystems") + ", borrowed: " + borrowed);
+			System.out.println("open file descriptors: " + fdsBefore + " before, " + fdsAfter + " after");
+			if (failures.get() > 0) {
+				throw new IllegalStateException(failures.get() + " sessions failed");
+			}
+			if (borrowed != 0) {
+				throw new IllegalStateException(borrowed + " pooled dfs object references leaked");
+			}
+			if (fdsBefore >= 0 && fdsAfter - fdsBefore > FD_TOLERANCE) {
+				throw new IllegalStateException((fdsAfter - fdsBefore) + " file descriptors leaked");
+			}
+			System.out.println("OK");
+		} finally {
+			HdFtpServer.stop(server);
+		}
+	}
+
+	/**
+	 * Run a session through each way ftpserver drops the file system view of a login
+	 */
+	private void session(int port) throws IOException {
+		HdFtpLoadClient ftp = new HdFtpLoadClient("127.0.0.1", port);
+		try {
+			ftp.login(userName, PASSWORD);
+			expect(ftp.command("REIN"), 220, "REIN");
+			ftp.login(userName, PASSWORD);
+			// PASS of a logged in session replies 202 and reinitializes the session
+			expect(ftp.command("PASS " + PASSWORD), 202, "PASS");
+			expect(ftp.command("USER " + userName), 331, "USER");
+			expect(ftp.command("PASS wrong"), 530, "PASS wrong");
+			ftp.login(userName, PASSWORD);
+			ftp.list(".", new byte[8192]);
+		} finally {
+			ftp.close();
+		}
+	}
+
+	private static void expect(int code, int expected, String command) throws IOException {
+		if (code != expected) {
+			throw new IOException(command + " replied " + code + ", expected " + expected);
+		}
+	}
+
+	private void writeConfig(File home, int port) throws Exception {
+		Properties props = new Properties();
+		props.setProperty("port", String.valueOf(port));
+		props.setProperty("data-ports", "0");
+		props.setProperty("hdfs-superuser", userName);
+		props.setProperty("hdfs-proxy-users", "true");
+		props.setProperty("trash-dir", "");
+		props.setProperty("jmx-metrics", "true");
+		HdFtpLoadTest.store(props, new File(home, "conf/hdftp.properties"));
+
+		String user = "ftpserver.user." + userName + ".";
+		Properties users = new Properties();
+		users.setProperty(user + "userpassword", HdFtpLoadTest.md5(PASSWORD));
+		users.setProperty(user + "homedirectory", new File(workDir, "data").getAbsolutePath());
+		users.setProperty(user + "enableflag", "true");
+		users.setProperty(user + "writepermission", "true");
+		users.setProperty(user + "maxloginnumber", "0");
+		users.setProperty(user + "maxloginperip", "0");
+		users.setProperty(user + "idletime", "0");
+		HdFtpLoadTest.store(users, new File(home, "conf/users.properties"));
+
+		Configuration conf = new Configuration(false);
+		conf.set("fs.defaultFS", "file:///");
+		OutputStream out = new FileOutputStream(new File(home, "conf/hdfs-site.xml"));
+		try {
+			conf.writeXml(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int metric(String attribute) throws Exception {
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		return (Integer) mbeans.getAttribute(new ObjectName(HdFtpMetrics.DOMAIN + ":type=Server,name=HdFtp"), attribute);
+	}
+
+	/**
+	 * Get number of open file descriptors of the process, -1 if the OS doesn't report it
+	 */
+	private static long openFileDescriptors() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+			return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,89 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.PasswordEncryptor;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the user lookup and authentication of HdFtpPropertiesUserManager by concurrent logins,
+ * with MD5 and PBKDF2 password hashes and with and without the credential cache.
+ * Compare the throughput of 1 thread and of all cores, e.g. by -t 1 and -t max of JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class HdFtpUserManagerBenchmark {
+
+	private static final int USERS = 100;
+
+	private static final String PASSWORD = "password";
+
+	/**
+	 * Password encryptor of the users
+	 */
+	@Param({ "md5", "pbkdf2" })
+	public String encryptor;
+
+	/**
+	 * Size of the credential cache, 0 verifies every login by the password encryptor
+	 */
+	@Param({ "0", "10000" })
+	public int credentialCacheSize;
+
+	private HdFtpPropertiesUserManager userManager;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		PasswordEncryptor passwordEncryptor = HdFtpServer.createPasswordEncryptor(encryptor, 20000);
+		File file = File.createTempFile("hdftp-users", ".properties");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			for (int i = 0; i < USERS; i++) {
+				writer.write("ftpserver.user.user" + i + ".userpassword=" + passwordEncryptor.encrypt(PASSWORD) + "\n");
+				writer.write("ftpserver.user.user" + i + ".homedirectory=/user/user" + i + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		userManager = new HdFtpPropertiesUserManager("admin", passwordEncryptor, file);
+		if (credentialCacheSize > 0) {
+			userManager.setCredentialCache(new HdFtpCredentialCache(credentialCacheSize, 300000));
+		}
+	}
+
+	@Benchmark
+	public User getUserByName() {
+		return userManager.getUserByName("user" + ThreadLocalRandom.current().nextInt(USERS));
+	}
+
+	@Benchmark
+	public User authenticate() throws Exception {
+		String name = "user" + ThreadLocalRandom.current().nextInt(USERS);
+		return userManager.authenticate(new UsernamePasswordAuthentication(name, PASSWORD));
+	}
+}
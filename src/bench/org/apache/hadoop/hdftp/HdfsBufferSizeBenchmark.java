@@ -0,0 +1,89 @@
+package org.apache.hadoop.hdftp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the RETR and STOR throughput by io-buffer-size. The streams are read and written
+ * in 4 KB chunks like the transfer loop of ftpserver, without read ahead and write behind,
+ * so the buffer size alone decides the size of the HDFS calls. MB/s is ops/s * 64.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HdfsBufferSizeBenchmark {
+
+	private static final long TRANSFER_SIZE = 64L * 1048576;
+
+	/**
+	 * io-buffer-size in bytes
+	 */
+	@Param({ "4096", "65536", "1048576", "4194304" })
+	public int ioBufferSize;
+
+	private HdFtpBenchmarkSupport support;
+
+	private HdfsFileSystemView view;
+
+	private byte[] buf = new byte[4096];
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		support = new HdFtpBenchmarkSupport(0);
+		support.getFactory().setBufferSize(ioBufferSize);
+		support.getFactory().setReadAheadDepth(0);
+		support.getFactory().setWriteBehindDepth(0);
+		view = support.getView();
+		support.createFile("/transfer", TRANSFER_SIZE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		support.close();
+	}
+
+	@Benchmark
+	public long retr() throws Exception {
+		InputStream in = view.getFile("/transfer").createInputStream(0);
+		long bytes = 0;
+		try {
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				bytes += n;
+			}
+		} finally {
+			in.close();
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public void stor() throws Exception {
+		OutputStream out = view.getFile("/upload").createOutputStream(0);
+		try {
+			for (long written = 0; written < TRANSFER_SIZE; written += buf.length) {
+				out.write(buf);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
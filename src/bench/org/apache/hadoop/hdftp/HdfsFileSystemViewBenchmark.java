@@ -0,0 +1,83 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of HdfsFileSystemView: changing the working directory and resolving paths
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HdfsFileSystemViewBenchmark {
+
+	/**
+	 * Time to live of the metadata cache in milliseconds, 0 measures the file system calls
+	 */
+	@Param({ "0", "3000" })
+	public int cacheTtl;
+
+	private HdFtpBenchmarkSupport support;
+
+	private HdfsFileSystemView view;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		support = new HdFtpBenchmarkSupport(cacheTtl);
+		view = support.getView();
+		support.createDirectory("/a/b/c", 10);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		support.close();
+	}
+
+	@Benchmark
+	public boolean changeWorkingDirectoryAbsolute() throws Exception {
+		return view.changeWorkingDirectory("/a/b/c");
+	}
+
+	@Benchmark
+	public boolean changeWorkingDirectoryRelative() throws Exception {
+		view.changeWorkingDirectory("/a/b");
+		return view.changeWorkingDirectory("c");
+	}
+
+	@Benchmark
+	public boolean changeWorkingDirectoryMissing() throws Exception {
+		return view.changeWorkingDirectory("/a/missing");
+	}
+
+	@Benchmark
+	public FtpFile getFileAbsolute() throws Exception {
+		return view.getFile("/a/b/c/file-0");
+	}
+
+	@Benchmark
+	public FtpFile getFileRelative() throws Exception {
+		return view.getFile("file-0");
+	}
+
+	@Benchmark
+	public String getFileAbsolutePath() throws Exception {
+		return view.getFile("/a/b/c/file-0").getAbsolutePath();
+	}
+}
@@ -0,0 +1,132 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of HdfsFtpFile: directory listing, permission checks and stream open.
+ * Only the listing benchmarks run for each directory size, the others use a small directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HdfsFtpFileBenchmark {
+
+	/**
+	 * Time to live of the metadata cache in milliseconds, 0 measures the file system calls
+	 */
+	@Param({ "0", "3000" })
+	public int cacheTtl;
+
+	private HdFtpBenchmarkSupport support;
+
+	private HdfsFileSystemView view;
+
+	private String dir = "/files";
+
+	/**
+	 * Directory of the listing benchmarks
+	 */
+	@State(Scope.Benchmark)
+	public static class Listing {
+
+		/**
+		 * Number of files of the listed directory
+		 */
+		@Param({ "10", "10000", "1000000" })
+		public int entries;
+
+		private String dir;
+
+		@Setup(Level.Trial)
+		public void setup(HdfsFtpFileBenchmark benchmark) throws Exception {
+			dir = "/list-" + entries;
+			benchmark.support.createDirectory(dir, entries);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		support = new HdFtpBenchmarkSupport(cacheTtl);
+		view = support.getView();
+		support.createDirectory(dir, 10);
+		support.createFile("/data");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		support.close();
+	}
+
+	@Benchmark
+	public void listFiles(Listing listing, Blackhole blackhole) throws Exception {
+		List<FtpFile> files = view.getFile(listing.dir).listFiles();
+		for (FtpFile file : files) {
+			blackhole.consume(file.getName());
+		}
+	}
+
+	@Benchmark
+	public void listFilesIterator(Listing listing, Blackhole blackhole) throws Exception {
+		RemoteIterator<FtpFile> files = ((HdfsFtpFile) view.getFile(listing.dir)).listFilesIterator();
+		while (files.hasNext()) {
+			blackhole.consume(files.next().getName());
+		}
+	}
+
+	@Benchmark
+	public boolean isReadable() throws Exception {
+		return view.getFile(dir + "/file-0").isReadable();
+	}
+
+	@Benchmark
+	public boolean isWritable() throws Exception {
+		return view.getFile(dir + "/file-0").isWritable();
+	}
+
+	@Benchmark
+	public boolean isWritableNewFile() throws Exception {
+		return view.getFile(dir + "/new-file").isWritable();
+	}
+
+	@Benchmark
+	public int openStream() throws Exception {
+		InputStream in = view.getFile("/data").createInputStream(0);
+		try {
+			return in.read();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public int openStreamAtOffset() throws Exception {
+		InputStream in = view.getFile("/data").createInputStream(HdFtpBenchmarkSupport.FILE_SIZE / 2);
+		try {
+			return in.read();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the permission check of HdfsFtpFile by the FsAction bits against the former check,
+ * which parsed FsPermission.toString() for every check. Both check the same FileStatus in memory,
+ * so only the evaluation is measured, not the file system call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HdfsPermissionBenchmark {
+
+	/**
+	 * Whose bits apply to the user: owner, group or other
+	 */
+	@Param({ "owner", "group", "other" })
+	public String who;
+
+	private FileStatus status;
+
+	private HdFtpUser user;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		status = new FileStatus(0, false, 3, 134217728, 0, 0, new FsPermission((short) 0754), "owner", "group",
+				new Path("/user/owner/file"));
+		user = new HdFtpUser(who);
+		// a copy, as loaded from users.properties, so it's not the same String instance as the status has
+		user.setGroup(new String(who));
+	}
+
+	@Benchmark
+	public boolean fsAction() {
+		return HdfsFtpFile.checkPermission(status, FsAction.READ, user);
+	}
+
+	@Benchmark
+	public boolean stringParsing() {
+		return isReadableByString(status, user);
+	}
+
+	/**
+	 * The former read check of HdfsFtpFile, including its comparison of the group by ==
+	 */
+	private static boolean isReadableByString(FileStatus status, HdFtpUser user) {
+		FsPermission permissions = status.getPermission();
+		if (user.getName().equals(status.getOwner())) {
+			return permissions.toString().substring(0, 1).equals("r");
+		} else if (user.getGroup() == status.getGroup()) {
+			return permissions.toString().substring(3, 4).equals("r");
+		} else if (permissions != null) {
+			return permissions.toString().substring(6, 7).equals("r");
+		}
+		return false;
+	}
+}
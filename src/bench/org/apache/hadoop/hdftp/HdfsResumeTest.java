@@ -0,0 +1,169 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test of a resumed RETR: HdfsFtpFile.createInputStream(offset) has to read only the bytes after the offset,
+ * with and without read ahead. The bytes read from the file system are counted by its statistics,
+ * the local file system is used without checksum files so they count the file alone.
+ * A resumed STOR has to be checked against the current length of the file, not a length in the metadata cache.
+ * The working directory is set by hdftp.resume.dir, java.io.tmpdir/hdftp-resume by default.
+ */
+public class HdfsResumeTest {
+
+	private static final int LENGTH = 3 * 1048576 + 12345;
+
+	private File workDir = new File(System.getProperty("hdftp.resume.dir", System.getProperty("java.io.tmpdir") + "/hdftp-resume"));
+
+	public static void main(String[] args) throws Exception {
+		new HdfsResumeTest().run();
+	}
+
+	public void run() throws Exception {
+		workDir.mkdirs();
+		String userName = System.getProperty("user.name");
+		HdfsFileSystemFactory factory = new HdfsFileSystemFactory(userName, writeConf().getPath());
+		// cached statuses don't expire during the test
+		factory.setMetadataCache(new HdfsMetadataCache(600000, 600000, 1000, 1000));
+		HdFtpUser user = new HdFtpUser(userName);
+		user.setHomeDirectory(new File(workDir, "home").getAbsolutePath());
+		user.setGroup(userName);
+		List<Authority> authorities = new ArrayList<Authority>();
+		authorities.add(new WritePermission());
+		user.setAuthorities(authorities);
+		HdfsFileSystemView view = (HdfsFileSystemView) factory.createFileSystemView(user);
+		try {
+			createFile(factory.getFileSystem(), new Path(user.getHomeDirectory(), "file"));
+			int failures = 0;
+			for (int readAhead : new int[] { 0, 4 }) {
+				factory.setReadAheadDepth(readAhead);
+				for (long offset : new long[] { 0, 1, 65536, LENGTH / 2, LENGTH - 1, LENGTH }) {
+					if (!check(factory, view, readAhead, offset)) {
+						failures++;
+					}
+				}
+			}
+			if (!checkAppend(factory, view, new Path(user.getHomeDirectory(), "upload"))) {
+				failures++;
+			}
+			if (failures > 0) {
+				throw new IllegalStateException(failures + " checks failed");
+			}
+			System.out.println("OK");
+		} finally {
+			view.dispose();
+			factory.close();
+		}
+	}
+
+	private boolean check(HdfsFileSystemFactory factory, HdfsFileSystemView view, int readAhead, long offset) throws Exception {
+		FileSystem.Statistics statistics = FileSystem.getStatistics(factory.getFileSystem().getUri().getScheme(),
+				factory.getFileSystem().getClass());
+		long before = statistics.getBytesRead();
+		long bytes = 0;
+		boolean content = true;
+		InputStream in = view.getFile("/file").createInputStream(offset);
+		try {
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				for (int i = 0; i < n; i++) {
+					if (buf[i] != pattern(offset + bytes + i)) {
+						content = false;
+					}
+				}
+				bytes += n;
+			}
+		} finally {
+			in.close();
+		}
+		long read = statistics.getBytesRead() - before;
+		boolean ok = content && bytes == LENGTH - offset && read == LENGTH - offset;
+		System.out.println(String.format("read ahead %d, offset %8d: %8d bytes transferred, %8d bytes read from the file system, content %s %s",
+				readAhead, offset, bytes, read, content ? "ok" : "wrong", ok ? "OK" : "FAILED"));
+		return ok;
+	}
+
+	/**
+	 * Resume an upload of a file which another client appended to after its length was cached
+	 */
+	private boolean checkAppend(HdfsFileSystemFactory factory, HdfsFileSystemView view, Path file) throws Exception {
+		FileSystem fs = factory.getFileSystem();
+		FSDataOutputStream out = fs.create(file, true);
+		out.write(new byte[1000]);
+		out.close();
+		long cached = view.getFile("/upload").getSize();
+		out = fs.append(file);
+		out.write(new byte[500]);
+		out.close();
+		long stale = view.getFile("/upload").getSize();
+
+		boolean rejected = false;
+		try {
+			view.getFile("/upload").createOutputStream(cached);
+		} catch (IOException e) {
+			rejected = true;
+		}
+		OutputStream resumed = view.getFile("/upload").createOutputStream(1500);
+		boolean appended = resumed != null;
+		if (appended) {
+			resumed.write(new byte[250]);
+			resumed.close();
+		}
+		long length = fs.getFileStatus(file).getLen();
+		boolean ok = cached == 1000 && rejected && appended && length == 1750;
+		System.out.println(String.format("resumed upload: cached length %d (%d after the other append), stale offset %s,"
+				+ " length after the resume %d %s", cached, stale, rejected ? "rejected" : "accepted", length, ok ? "OK" : "FAILED"));
+		return ok;
+	}
+
+	private static byte pattern(long pos) {
+		return (byte) (pos % 251);
+	}
+
+	private static void createFile(FileSystem fs, Path file) throws IOException {
+		byte[] data = new byte[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			data[i] = pattern(i);
+		}
+		FSDataOutputStream out = fs.create(file, true);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * hdfs-site.xml of the local file system without checksum files
+	 */
+	private File writeConf() throws IOException {
+		File conf = new File(workDir, "hdfs-site.xml");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(conf), "UTF-8");
+		try {
+			writer.write("<?xml version=\"1.0\"?>\n<configuration>\n"
+					+ "  <property><name>fs.defaultFS</name><value>file:///</value></property>\n"
+					+ "  <property><name>fs.file.impl</name><value>" + RawLocalFileSystem.class.getName() + "</value></property>\n"
+					+ "  <property><name>fs.file.impl.disable.cache</name><value>true</value></property>\n"
+					+ "</configuration>\n");
+		} finally {
+			writer.close();
+		}
+		return conf;
+	}
+}
@@ -6,7 +6,7 @@ fi
 if [ "$HADOOP_HOME" = "" ]; then
 	HADOOP_HOME=/hadoop/hadoop-2.7.1
 fi
-JAVA_OPTS="-Xmx1024M"
+JAVA_OPTS="-Xmx1024M -XX:MaxDirectMemorySize=512M -Djava.library.path=$HADOOP_HOME/lib/native"
 
 JAR=`dirname $0`
 JAR="$JAR/hdftp.jar"
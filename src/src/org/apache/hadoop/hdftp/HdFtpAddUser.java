@@ -2,12 +2,13 @@ package org.apache.hadoop.hdftp;
 
 import java.io.File;
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 
-import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
 import org.apache.ftpserver.usermanager.PasswordEncryptor;
 import org.apache.ftpserver.ftplet.Authority;
 import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
@@ -16,6 +17,7 @@ import org.apache.ftpserver.usermanager.impl.WritePermission;
 
 public class HdFtpAddUser {	
 	
+	private static String CONF_FILE = "conf/hdftp.properties";
 	private static String CONF_USER = "conf/users.properties";
 
 	public static void main(String[] args) throws Exception{
@@ -26,7 +28,19 @@ public class HdFtpAddUser {
         try {
             BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
             
-            HdFtpPropertiesUserManager um = new HdFtpPropertiesUserManager("admin", new Md5PasswordEncryptor(), new File(hdftp_home + CONF_USER));
+            // passwords are hashed by the password encryptor of the server
+            Properties props = new Properties();
+            FileInputStream conf = new FileInputStream(hdftp_home + CONF_FILE);
+            try {
+            	props.load(conf);
+            } finally {
+            	conf.close();
+            }
+            String iterations = props.getProperty("pbkdf2-iterations");
+            PasswordEncryptor passwordEncryptor = HdFtpServer.createPasswordEncryptor(
+            		props.getProperty("password-encryptor", "md5").trim(),
+            		iterations == null ? 20000 : Integer.parseInt(iterations.trim()));
+            HdFtpPropertiesUserManager um = new HdFtpPropertiesUserManager("admin", passwordEncryptor, new File(hdftp_home + CONF_USER));
 
             System.out.println("Asking for details of the new user");
             
@@ -38,7 +52,6 @@ public class HdFtpAddUser {
             HdFtpUser user = new HdFtpUser(userName);
             
             String password = askForString(in, "Password:");
-            PasswordEncryptor passwordEncryptor = new Md5PasswordEncryptor();
             password = passwordEncryptor.encrypt(password);
             user.setPassword(password);
             
@@ -79,6 +92,8 @@ public class HdFtpAddUser {
             
             user.setFileReplication((short) askForInt(in, "File replication of user upload's (0 for server default):"));
             
+            user.setBufferSize(askForInt(in, "I/O buffer size of user transfers in bytes (0 for server default):"));
+            
             if (um.doesExist(userName)) {
             	if(!askForBoolean(in, "User \"" + userName + "\" already exist, are you overwrite(Y/N):")) {
             		System.exit(0);
@@ -0,0 +1,119 @@
+package org.apache.hadoop.hdftp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of an FTP command or of the commands of a user: number of commands, number of HDFS calls
+ * and a latency histogram with fixed buckets
+ */
+public class HdFtpCommandStats implements HdFtpCommandStatsMBean {
+
+	private static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+	private AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+	private AtomicLong count = new AtomicLong();
+
+	private AtomicLong rpcs = new AtomicLong();
+
+	private AtomicLong totalLatency = new AtomicLong();
+
+	private AtomicLong maxLatency = new AtomicLong();
+
+	/**
+	 * Record an executed command
+	 *
+	 * @param latency milliseconds the command took
+	 * @param rpcCount number of HDFS calls of the command
+	 */
+	public void record(long latency, long rpcCount) {
+		int bucket = 0;
+		while (bucket < BUCKETS.length && latency > BUCKETS[bucket]) {
+			bucket++;
+		}
+		histogram.incrementAndGet(bucket);
+		count.incrementAndGet();
+		rpcs.addAndGet(rpcCount);
+		totalLatency.addAndGet(latency);
+		long max = maxLatency.get();
+		while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+			max = maxLatency.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getRpcCount() {
+		return rpcs.get();
+	}
+
+	public double getMeanRpcCount() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) rpcs.get() / n;
+	}
+
+	public double getMeanLatency() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) totalLatency.get() / n;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency.get();
+	}
+
+	public long getLatency50th() {
+		return percentile(0.5);
+	}
+
+	public long getLatency99th() {
+		return percentile(0.99);
+	}
+
+	public long[] getLatencyBuckets() {
+		return BUCKETS.clone();
+	}
+
+	public long[] getLatencyHistogram() {
+		long[] counts = new long[histogram.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = histogram.get(i);
+		}
+		return counts;
+	}
+
+	public void reset() {
+		for (int i = 0; i < histogram.length(); i++) {
+			histogram.set(i, 0);
+		}
+		count.set(0);
+		rpcs.set(0);
+		totalLatency.set(0);
+		maxLatency.set(0);
+	}
+
+	/**
+	 * Get the upper bound of the bucket which contains the percentile, the max latency for the last bucket
+	 */
+	private long percentile(double fraction) {
+		long[] counts = getLatencyHistogram();
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return i < BUCKETS.length ? BUCKETS[i] : getMaxLatency();
+			}
+		}
+		return getMaxLatency();
+	}
+}
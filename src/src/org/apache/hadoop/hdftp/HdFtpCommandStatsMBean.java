@@ -0,0 +1,57 @@
+package org.apache.hadoop.hdftp;
+
+/**
+ * JMX interface of the statistics of an FTP command or of the commands of a user
+ */
+public interface HdFtpCommandStatsMBean {
+
+	/**
+	 * Get number of executed commands
+	 */
+	long getCount();
+
+	/**
+	 * Get number of HDFS calls of the commands
+	 */
+	long getRpcCount();
+
+	/**
+	 * Get mean number of HDFS calls of a command
+	 */
+	double getMeanRpcCount();
+
+	/**
+	 * Get mean latency in milliseconds
+	 */
+	double getMeanLatency();
+
+	/**
+	 * Get max latency in milliseconds
+	 */
+	long getMaxLatency();
+
+	/**
+	 * Get the upper bound of the latency of 50% of the commands in milliseconds, the bound of its histogram bucket
+	 */
+	long getLatency50th();
+
+	/**
+	 * Get the upper bound of the latency of 99% of the commands in milliseconds, the bound of its histogram bucket
+	 */
+	long getLatency99th();
+
+	/**
+	 * Get the upper bounds of the latency histogram buckets in milliseconds, the last bucket has no bound
+	 */
+	long[] getLatencyBuckets();
+
+	/**
+	 * Get number of commands of each latency histogram bucket
+	 */
+	long[] getLatencyHistogram();
+
+	/**
+	 * Reset the statistics
+	 */
+	void reset();
+}
@@ -0,0 +1,161 @@
+package org.apache.hadoop.hdftp;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide cache of verified credentials, so a client which logs in for every file pays
+ * the slow password hash once per time to live. An entry is keyed by an HMAC of the user name,
+ * the password and the stored password hash under a random key of the process, so the cache
+ * holds no password, and a changed password or stored hash doesn't match old entries.
+ * Only successful verifications are cached. All entries live for the same time, so they expire
+ * in the order they were cached, and the oldest entries are evicted when the cache is full.
+ */
+public class HdFtpCredentialCache {
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private int maxSize;
+
+	private long ttl;
+
+	private ConcurrentMap<String, Entry> verified = new ConcurrentHashMap<String, Entry>();
+
+	private Queue<Entry> order = new ConcurrentLinkedQueue<Entry>();	// entries in the order they were cached
+
+	private ThreadLocal<Mac> macs;
+
+	private AtomicLong hits = new AtomicLong();
+
+	private AtomicLong misses = new AtomicLong();
+
+	private static class Entry {
+		final String key;
+		final long expires;
+
+		Entry(String key, long expires) {
+			this.key = key;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Constructor - set the size and the time to live of the entries
+	 *
+	 * @param maxSize max number of cached credentials
+	 * @param ttl milliseconds a verified credential is cached
+	 */
+	public HdFtpCredentialCache(int maxSize, long ttl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		final SecretKeySpec key = new SecretKeySpec(secret, MAC_ALGORITHM);
+		this.macs = new ThreadLocal<Mac>() {
+			@Override
+			protected Mac initialValue() {
+				try {
+					Mac mac = Mac.getInstance(MAC_ALGORITHM);
+					mac.init(key);
+					return mac;
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(MAC_ALGORITHM + " is not supported by the JVM", e);
+				}
+			}
+		};
+	}
+
+	private String key(String userName, String password, String storedPassword) {
+		Mac mac = macs.get();
+		try {
+			mac.update(userName.getBytes("UTF-8"));
+			mac.update((byte) 0);
+			mac.update(password.getBytes("UTF-8"));
+			mac.update((byte) 0);
+			mac.update(storedPassword.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] digest = mac.doFinal();
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Check if the credential was verified within the time to live
+	 *
+	 * @param userName name of the user
+	 * @param password password of the login
+	 * @param storedPassword stored hash of the password of the user
+	 * @return true if the credential is cached
+	 */
+	public boolean isVerified(String userName, String password, String storedPassword) {
+		if (storedPassword == null) {
+			return false;
+		}
+		String key = key(userName, password, storedPassword);
+		Entry entry = verified.get(key);
+		if (entry != null) {
+			if (entry.expires > System.currentTimeMillis()) {
+				hits.incrementAndGet();
+				return true;
+			}
+			verified.remove(key, entry);
+		}
+		misses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Cache a verified credential, the expired entries and, when the cache is full, the oldest entries are evicted
+	 *
+	 * @param userName name of the user
+	 * @param password password of the login
+	 * @param storedPassword stored hash of the password of the user
+	 */
+	public void putVerified(String userName, String password, String storedPassword) {
+		if (storedPassword == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(key(userName, password, storedPassword), now + ttl);
+		verified.put(entry.key, entry);
+		order.add(entry);
+		Entry oldest;
+		while ((oldest = order.peek()) != null && (oldest.expires <= now || verified.size() > maxSize)) {
+			if (order.remove(oldest)) {
+				// a replaced entry is no longer in the map
+				verified.remove(oldest.key, oldest);
+			}
+		}
+	}
+
+	/**
+	 * Get number of logins verified by the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of logins verified by the password encryptor
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public String toString() {
+		return "HdFtpCredentialCache [size=" + verified.size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+	}
+}
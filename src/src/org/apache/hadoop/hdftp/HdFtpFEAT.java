@@ -0,0 +1,47 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+
+import java.io.IOException;
+
+/**
+ * FEAT command which lists the extensions of HdFtp, the features of ftpserver
+ * with the MLST facts of {@link HdfsMLSTFileFormater} and the HASH algorithms of {@link HdFtpHASH}
+ */
+public class HdFtpFEAT extends AbstractCommand {
+
+	private static final String[] FEATURES = {
+		"SIZE",
+		"MDTM",
+		"REST STREAM",
+		"LANG en;zh-tw;ja;is",
+		"MLST " + HdfsMLSTFileFormater.getFeature(),
+		"AUTH SSL",
+		"AUTH TLS",
+		"MODE Z",
+		"UTF8",
+		"TVFS",
+		"MD5",
+		"MMD5",
+		"MFMT",
+		"XMD5",
+		"XCRC"
+	};
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		session.resetState();
+		StringBuilder sb = new StringBuilder("Extensions supported\n");
+		for (int i = 0; i < FEATURES.length; i++) {
+			sb.append(' ').append(FEATURES[i]).append('\n');
+		}
+		sb.append(" HASH ").append(HdFtpHASH.getFeature(HdFtpHASH.getAlgorithm(session))).append('\n');
+		sb.append("End");
+		session.write(new DefaultFtpReply(FtpReply.REPLY_211_SYSTEM_STATUS_REPLY, sb.toString()));
+	}
+}
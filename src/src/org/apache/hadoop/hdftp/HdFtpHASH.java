@@ -0,0 +1,107 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * HASH, XMD5 and XCRC commands, the checksum of a file is computed by the server so the client
+ * doesn't download the file to check it. HASH uses the algorithm selected by OPTS HASH,
+ * by default the HDFS checksum which reads no file data. XMD5 and XCRC hash the content of the file.
+ */
+public class HdFtpHASH extends AbstractCommand {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdFtpHASH.class);
+
+	private static final transient HdFtpRateLimitedLog errors = new HdFtpRateLimitedLog(log);
+
+	/**
+	 * Session attribute of the algorithm selected by OPTS HASH
+	 */
+	public static final String ATTR_ALGORITHM = "HASH.algorithm";
+
+	/**
+	 * Algorithms of HASH, the first is the default
+	 */
+	public static final String[] ALGORITHMS = { HdfsChecksumCache.HDFS_ALGORITHM, "SHA-1", "SHA-256", "MD5", "CRC32" };
+
+	/**
+	 * Get the algorithms of the FEAT reply, the selected one is marked by '*'
+	 */
+	public static String getFeature(String selected) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < ALGORITHMS.length; i++) {
+			if (i > 0) {
+				sb.append(';');
+			}
+			sb.append(ALGORITHMS[i]);
+			if (ALGORITHMS[i].equals(selected)) {
+				sb.append('*');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the algorithm selected in the session
+	 */
+	public static String getAlgorithm(FtpIoSession session) {
+		String algorithm = (String) session.getAttribute(ATTR_ALGORITHM);
+		return algorithm == null ? ALGORITHMS[0] : algorithm;
+	}
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		session.resetState();
+		String command = request.getCommand().toUpperCase();
+		String fileName = request.getArgument();
+		if (fileName == null || fileName.trim().length() == 0) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS, "Syntax error in parameters or arguments."));
+			return;
+		}
+		fileName = fileName.trim();
+
+		String algorithm;
+		if ("XMD5".equals(command)) {
+			algorithm = "MD5";
+		} else if ("XCRC".equals(command)) {
+			algorithm = "CRC32";
+		} else {
+			algorithm = getAlgorithm(session);
+		}
+
+		FtpFile file = session.getFileSystemView().getFile(fileName);
+		if (!file.doesExist() || !file.isFile()) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN, fileName + ": No such file."));
+			return;
+		}
+
+		String[] checksum;
+		try {
+			checksum = ((HdfsFtpFile) file).getChecksum(algorithm);
+		} catch (IOException e) {
+			errors.error("{} {} failed.", command, fileName, e);
+			session.write(new DefaultFtpReply(FtpReply.REPLY_451_REQUESTED_ACTION_ABORTED, fileName + ": Checksum failed."));
+			return;
+		}
+		if (checksum == null) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN, fileName + ": Permission denied."));
+			return;
+		}
+
+		if ("HASH".equals(command)) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_213_FILE_STATUS,
+					checksum[0] + " 0-" + file.getSize() + " " + checksum[1] + " " + fileName));
+		} else {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY, checksum[1]));
+		}
+	}
+}
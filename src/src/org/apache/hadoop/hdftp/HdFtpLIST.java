@@ -0,0 +1,167 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.command.impl.listing.LISTFileFormater;
+import org.apache.ftpserver.command.impl.listing.ListArgument;
+import org.apache.ftpserver.command.impl.listing.ListArgumentParser;
+import org.apache.ftpserver.command.impl.listing.NLSTFileFormater;
+import org.apache.ftpserver.command.impl.listing.RegexFileFilter;
+import org.apache.ftpserver.command.impl.listing.VisibleFileFilter;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.IODataConnectionFactory;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.apache.ftpserver.impl.ServerDataConnectionFactory;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+
+/**
+ * LIST, NLST and MLSD commands which stream the directory listing to the client page by page
+ * instead of building the whole listing in memory before sending it.
+ * MLSD lists the facts of {@link HdfsMLSTFileFormater} selected by OPTS MLST.
+ */
+public class HdFtpLIST extends AbstractCommand {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdFtpLIST.class);
+
+	private static final LISTFileFormater LIST_FILE_FORMATER = new LISTFileFormater();
+
+	private static final NLSTFileFormater NLST_FILE_FORMATER = new NLSTFileFormater();
+
+	private int pageSize;
+
+	/**
+	 * Constructor - set the number of entries sent per page
+	 */
+	public HdFtpLIST(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		String command = request.getCommand().toUpperCase();
+		try {
+			session.resetState();
+			ListArgument parsedArg = ListArgumentParser.parse(request.getArgument());
+			FileFormater formater = LIST_FILE_FORMATER;
+			if ("NLST".equals(command) && !parsedArg.hasOption('l')) {
+				formater = NLST_FILE_FORMATER;
+			} else if ("MLSD".equals(command)) {
+				formater = new HdfsMLSTFileFormater((String[]) session.getAttribute("MLST.types"));
+			}
+
+			FtpFile file = session.getFileSystemView().getFile(parsedArg.getFile());
+			if (!file.doesExist()) {
+				log.debug("Listing on a non-existing file");
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_450_REQUESTED_FILE_ACTION_NOT_TAKEN, command, null));
+				return;
+			}
+			if ("MLSD".equals(command) && !file.isDirectory()) {
+				log.debug("MLSD on a file");
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS, command, null));
+				return;
+			}
+
+			ServerDataConnectionFactory connFactory = session.getDataConnection();
+			if (connFactory instanceof IODataConnectionFactory && ((IODataConnectionFactory) connFactory).getInetAddress() == null) {
+				session.write(new DefaultFtpReply(FtpReply.REPLY_503_BAD_SEQUENCE_OF_COMMANDS, "PORT or PASV must be issued first"));
+				return;
+			}
+
+			session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_150_FILE_STATUS_OKAY, command, null));
+
+			DataConnection dataConnection;
+			try {
+				dataConnection = session.getDataConnection().openConnection();
+			} catch (Exception e) {
+				log.debug("Exception getting the output data stream", e);
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_425_CANT_OPEN_DATA_CONNECTION, command, null));
+				return;
+			}
+
+			boolean failure = false;
+			InputStream listing = null;
+			try {
+				listing = openListing(parsedArg, file, formater);
+				dataConnection.transferToClient(session.getFtpletSession(), listing);
+			} catch (SocketException e) {
+				log.debug("Socket exception during list transfer", e);
+				failure = true;
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED, command, null));
+			} catch (IOException e) {
+				log.debug("IOException during list transfer", e);
+				failure = true;
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN, command, null));
+			} catch (IllegalArgumentException e) {
+				log.debug("Illegal list syntax: {}", request.getArgument(), e);
+				failure = true;
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS, command, null));
+			} finally {
+				if (listing != null) {
+					listing.close();
+				}
+			}
+
+			if (!failure) {
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_226_CLOSING_DATA_CONNECTION, command, null));
+			}
+		} finally {
+			session.getDataConnection().closeDataConnection();
+		}
+	}
+
+	/**
+	 * Open the listing of a directory, or of a single file
+	 */
+	private InputStream openListing(ListArgument argument, FtpFile file, FileFormater formater) throws IOException {
+		FileFilter filter = null;
+		if (!argument.hasOption('a')) {
+			filter = new VisibleFileFilter();
+		}
+		if (argument.getPattern() != null) {
+			filter = new RegexFileFilter(argument.getPattern(), filter);
+		}
+
+		RemoteIterator<FtpFile> files;
+		if (file.isFile()) {
+			files = new SingleFileIterator(file);
+		} else {
+			files = ((HdfsFtpFile) file).listFilesIterator();
+		}
+		return new HdfsListingInputStream(files, filter, formater, pageSize);
+	}
+
+	/**
+	 * Listing of a single file
+	 */
+	private static class SingleFileIterator implements RemoteIterator<FtpFile> {
+
+		private FtpFile file;
+
+		SingleFileIterator(FtpFile file) {
+			this.file = file;
+		}
+
+		public boolean hasNext() {
+			return file != null;
+		}
+
+		public FtpFile next() {
+			FtpFile next = file;
+			file = null;
+			return next;
+		}
+	}
+}
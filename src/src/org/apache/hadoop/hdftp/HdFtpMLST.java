@@ -0,0 +1,43 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.command.impl.listing.ListArgument;
+import org.apache.ftpserver.command.impl.listing.ListArgumentParser;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * MLST command with the facts of {@link HdfsMLSTFileFormater}, the facts of a file are read
+ * from a single file status lookup
+ */
+public class HdFtpMLST extends AbstractCommand {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdFtpMLST.class);
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		session.resetState();
+		ListArgument parsedArg = ListArgumentParser.parse(request.getArgument());
+		try {
+			FtpFile file = session.getFileSystemView().getFile(parsedArg.getFile());
+			if (file != null && file.doesExist()) {
+				HdfsMLSTFileFormater formater = new HdfsMLSTFileFormater((String[]) session.getAttribute("MLST.types"));
+				// the facts line of the reply starts with a space (RFC 3659)
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY, "MLST", " " + formater.format(file)));
+			} else {
+				session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS, "MLST", null));
+			}
+		} catch (FtpException e) {
+			log.debug("Exception sending the file facts", e);
+			session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS, "MLST", null));
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package org.apache.hadoop.hdftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide statistics of the FTP commands and of their HDFS calls, exported by JMX.
+ * {@link HdFtpMetricsFtplet} opens a context for each command in the thread which executes it,
+ * the HDFS calls of the command are counted by {@link #rpc(String)} at the call sites.
+ * Each command and each user get an MBean with a latency histogram when they are first seen.
+ */
+public class HdFtpMetrics implements HdFtpMetricsMBean {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdFtpMetrics.class);
+
+	public static final String DOMAIN = "org.apache.hadoop.hdftp";
+
+	private static final int MAX_COMMANDS = 100;	// unknown commands above are counted as OTHER
+
+	private static final ThreadLocal<Context> current = new ThreadLocal<Context>();
+
+	private HdfsFileSystemFactory factory;
+
+	private HdFtpPropertiesUserManager userManager = null;
+
+	private MBeanServer mbeanServer = null;
+
+	private ConcurrentMap<String, HdFtpCommandStats> commands = new ConcurrentHashMap<String, HdFtpCommandStats>();
+
+	private ConcurrentMap<String, HdFtpCommandStats> users = new ConcurrentHashMap<String, HdFtpCommandStats>();
+
+	private ConcurrentMap<String, AtomicLong> rpcs = new ConcurrentHashMap<String, AtomicLong>();
+
+	private AtomicLong commandCount = new AtomicLong();
+
+	private AtomicLong rpcCount = new AtomicLong();
+
+	private static class Context {
+		final HdFtpMetrics metrics;
+		final long start = System.nanoTime();
+		long rpcs = 0;
+
+		Context(HdFtpMetrics metrics) {
+			this.metrics = metrics;
+		}
+	}
+
+	/**
+	 * Constructor - set the file system factory whose caches and pools are reported
+	 */
+	public HdFtpMetrics(HdfsFileSystemFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Set the user manager whose users and reloads are reported
+	 */
+	public void setUserManager(HdFtpPropertiesUserManager userManager) {
+		this.userManager = userManager;
+	}
+
+	/**
+	 * Count an HDFS call of the command executed by the current thread,
+	 * calls outside of a command, e.g. of background threads, are not counted
+	 *
+	 * @param operation name of the FileSystem operation
+	 */
+	public static void rpc(String operation) {
+		Context context = current.get();
+		if (context != null) {
+			context.rpcs++;
+			context.metrics.countRpc(operation);
+		}
+	}
+
+	private void countRpc(String operation) {
+		rpcCount.incrementAndGet();
+		AtomicLong count = rpcs.get(operation);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = rpcs.putIfAbsent(operation, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Open the context of a command in the current thread
+	 */
+	public void begin() {
+		current.set(new Context(this));
+	}
+
+	/**
+	 * Close the context of the command in the current thread and record it
+	 *
+	 * @param command name of the command
+	 * @param userName name of the user, null before the login
+	 */
+	public void end(String command, String userName) {
+		Context context = current.get();
+		current.remove();
+		if (context == null || command == null) {
+			return;
+		}
+		long latency = (System.nanoTime() - context.start) / 1000000;
+		commandCount.incrementAndGet();
+		command = command.toUpperCase();
+		if (!commands.containsKey(command) && commands.size() >= MAX_COMMANDS) {
+			command = "OTHER";
+		}
+		getStats(commands, "Command", command).record(latency, context.rpcs);
+		if (userName != null) {
+			getStats(users, "User", userName).record(latency, context.rpcs);
+		}
+	}
+
+	private HdFtpCommandStats getStats(ConcurrentMap<String, HdFtpCommandStats> map, String type, String name) {
+		HdFtpCommandStats stats = map.get(name);
+		if (stats == null) {
+			HdFtpCommandStats created = new HdFtpCommandStats();
+			stats = map.putIfAbsent(name, created);
+			if (stats == null) {
+				stats = created;
+				register(type, name, stats);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Register the MBean of the server and of the commands and users seen so far
+	 *
+	 * @param mbeanServer the MBean server, usually the platform MBean server
+	 */
+	public synchronized void register(MBeanServer mbeanServer) {
+		this.mbeanServer = mbeanServer;
+		register("Server", "HdFtp", this);
+		for (Map.Entry<String, HdFtpCommandStats> stats : commands.entrySet()) {
+			register("Command", stats.getKey(), stats.getValue());
+		}
+		for (Map.Entry<String, HdFtpCommandStats> stats : users.entrySet()) {
+			register("User", stats.getKey(), stats.getValue());
+		}
+	}
+
+	private synchronized void register(String type, String name, Object mbean) {
+		if (mbeanServer == null) {
+			return;
+		}
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + quote(name));
+			if (!mbeanServer.isRegistered(objectName)) {
+				mbeanServer.registerMBean(mbean, objectName);
+			}
+		} catch (Exception e) {
+			log.warn("Register MBean {} {} error.", type, name, e);
+		}
+	}
+
+	private static String quote(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (":,=*?\"\\\n".indexOf(name.charAt(i)) >= 0) {
+				return ObjectName.quote(name);
+			}
+		}
+		return name;
+	}
+
+	public long getCommandCount() {
+		return commandCount.get();
+	}
+
+	public long getRpcCount() {
+		return rpcCount.get();
+	}
+
+	public String[] getRpcCounts() {
+		Map<String, AtomicLong> sorted = new TreeMap<String, AtomicLong>(rpcs);
+		List<String> counts = new ArrayList<String>();
+		for (Map.Entry<String, AtomicLong> count : sorted.entrySet()) {
+			counts.add(count.getKey() + "=" + count.getValue().get());
+		}
+		return counts.toArray(new String[counts.size()]);
+	}
+
+	public long getMetadataCacheHits() {
+		return factory.getMetadataCache().getHitCount();
+	}
+
+	public long getMetadataCacheMisses() {
+		return factory.getMetadataCache().getMissCount();
+	}
+
+	public long getMetadataCacheNegativeHits() {
+		return factory.getMetadataCache().getNegativeHitCount();
+	}
+
+	public long getChecksumCacheHits() {
+		return factory.getChecksumCache().getHitCount();
+	}
+
+	public long getChecksumCacheMisses() {
+		return factory.getChecksumCache().getMissCount();
+	}
+
+	public long getBufferPoolCapacity() {
+		HdfsBufferPool pool = factory.getBufferPool();
+		return pool == null ? 0 : pool.getCapacity();
+	}
+
+	public long getBufferPoolAllocated() {
+		HdfsBufferPool pool = factory.getBufferPool();
+		return pool == null ? 0 : pool.getAllocated();
+	}
+
+	public long getBufferPoolUsed() {
+		HdfsBufferPool pool = factory.getBufferPool();
+		return pool == null ? 0 : pool.getUsed();
+	}
+
+	public long getBufferPoolWaits() {
+		HdfsBufferPool pool = factory.getBufferPool();
+		return pool == null ? 0 : pool.getWaitCount();
+	}
+
+	public long getBufferPoolTimeouts() {
+		HdfsBufferPool pool = factory.getBufferPool();
+		return pool == null ? 0 : pool.getTimeoutCount();
+	}
+
+	public long getReadAheadTransfers() {
+		return factory.getTransferStats().getReadAheadCount();
+	}
+
+	public long getReadAheadHdfsWaitTime() {
+		return factory.getTransferStats().getReadAheadHdfsWaitTime();
+	}
+
+	public long getReadAheadClientWaitTime() {
+		return factory.getTransferStats().getReadAheadClientWaitTime();
+	}
+
+	public long getWriteBehindTransfers() {
+		return factory.getTransferStats().getWriteBehindCount();
+	}
+
+	public long getWriteBehindHdfsWaitTime() {
+		return factory.getTransferStats().getWriteBehindHdfsWaitTime();
+	}
+
+	public int getTrashPending() {
+		HdfsAsyncDeleter deleter = factory.getAsyncDeleter();
+		return deleter == null ? 0 : deleter.getPendingCount();
+	}
+
+	public int getProxyFileSystems() {
+		HdfsFileSystemPool pool = factory.getFileSystemPool();
+		return pool == null ? 0 : pool.size();
+	}
+
+	public int getProxyFileSystemsBorrowed() {
+		HdfsFileSystemPool pool = factory.getFileSystemPool();
+		return pool == null ? 0 : pool.getBorrowedCount();
+	}
+
+	public int getUserCount() {
+		return userManager == null ? 0 : userManager.getUserCount();
+	}
+
+	public long getUserReloads() {
+		return userManager == null ? 0 : userManager.getReloadCount();
+	}
+
+	public long getUserReloadFailures() {
+		return userManager == null ? 0 : userManager.getReloadFailureCount();
+	}
+
+	public long getLastUserReload() {
+		return userManager == null ? 0 : userManager.getLastReloadTime();
+	}
+
+	public long getCredentialCacheHits() {
+		HdFtpCredentialCache cache = userManager == null ? null : userManager.getCredentialCache();
+		return cache == null ? 0 : cache.getHitCount();
+	}
+
+	public long getCredentialCacheMisses() {
+		HdFtpCredentialCache cache = userManager == null ? null : userManager.getCredentialCache();
+		return cache == null ? 0 : cache.getMissCount();
+	}
+}
@@ -0,0 +1,40 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.IOException;
+
+/**
+ * Ftplet which measures each FTP command for {@link HdFtpMetrics},
+ * ftpserver calls it before and after the command in the thread which executes the command
+ */
+public class HdFtpMetricsFtplet extends DefaultFtplet {
+
+	private HdFtpMetrics metrics;
+
+	/**
+	 * Constructor - set the statistics the commands are recorded to
+	 */
+	public HdFtpMetricsFtplet(HdFtpMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+		metrics.begin();
+		return super.beforeCommand(session, request);
+	}
+
+	@Override
+	public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply) throws FtpException, IOException {
+		User user = session.getUser();
+		metrics.end(request.getCommand(), user == null ? null : user.getName());
+		return super.afterCommand(session, request, reply);
+	}
+}
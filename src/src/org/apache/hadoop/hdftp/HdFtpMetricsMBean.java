@@ -0,0 +1,103 @@
+package org.apache.hadoop.hdftp;
+
+/**
+ * JMX interface of the server-wide statistics of HdFtp
+ */
+public interface HdFtpMetricsMBean {
+
+	/**
+	 * Get number of executed FTP commands
+	 */
+	long getCommandCount();
+
+	/**
+	 * Get number of HDFS calls made by FTP commands
+	 */
+	long getRpcCount();
+
+	/**
+	 * Get number of HDFS calls of each operation as "operation=count"
+	 */
+	String[] getRpcCounts();
+
+	long getMetadataCacheHits();
+
+	long getMetadataCacheMisses();
+
+	long getMetadataCacheNegativeHits();
+
+	long getChecksumCacheHits();
+
+	long getChecksumCacheMisses();
+
+	/**
+	 * Get max bytes of the transfer buffer pool, 0 if it has no limit
+	 */
+	long getBufferPoolCapacity();
+
+	long getBufferPoolAllocated();
+
+	long getBufferPoolUsed();
+
+	long getBufferPoolWaits();
+
+	/**
+	 * Get number of transfers refused with 426 because no buffers were free within buffer-pool-wait
+	 */
+	long getBufferPoolTimeouts();
+
+	long getReadAheadTransfers();
+
+	/**
+	 * Get milliseconds the read ahead transfers waited for HDFS
+	 */
+	long getReadAheadHdfsWaitTime();
+
+	/**
+	 * Get milliseconds the read ahead readers waited for the transfers to the clients
+	 */
+	long getReadAheadClientWaitTime();
+
+	long getWriteBehindTransfers();
+
+	/**
+	 * Get milliseconds the write behind transfers waited for HDFS
+	 */
+	long getWriteBehindHdfsWaitTime();
+
+	/**
+	 * Get number of directory trees waiting for the background deletion
+	 */
+	int getTrashPending();
+
+	/**
+	 * Get number of pooled dfs objects of proxy users, 0 if proxy users are disabled
+	 */
+	int getProxyFileSystems();
+
+	/**
+	 * Get number of sessions using a pooled dfs object of a proxy user
+	 */
+	int getProxyFileSystemsBorrowed();
+
+	/**
+	 * Get number of users of the user manager
+	 */
+	int getUserCount();
+
+	/**
+	 * Get number of reloads of the users file, the failed ones are not counted
+	 */
+	long getUserReloads();
+
+	long getUserReloadFailures();
+
+	/**
+	 * Get time of the last reload of the users file in milliseconds, 0 if never reloaded
+	 */
+	long getLastUserReload();
+
+	long getCredentialCacheHits();
+
+	long getCredentialCacheMisses();
+}
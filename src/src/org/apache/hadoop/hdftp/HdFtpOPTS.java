@@ -0,0 +1,76 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.impl.OPTS;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * OPTS command which accepts the facts of {@link HdfsMLSTFileFormater} in OPTS MLST
+ * and the algorithms of {@link HdFtpHASH} in OPTS HASH,
+ * the other options are handled by the OPTS command of ftpserver
+ */
+public class HdFtpOPTS extends OPTS {
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		String argument = request.getArgument();
+		if (argument != null && argument.toUpperCase().matches("HASH( .*)?")) {
+			optsHash(session, argument);
+			return;
+		}
+		if (argument == null || !argument.toUpperCase().matches("MLST( .*)?")) {
+			super.execute(session, context, request);
+			return;
+		}
+
+		session.resetState();
+		String listTypes = "";
+		List<String> types = new ArrayList<String>();
+		int spaceIndex = argument.indexOf(' ');
+		if (spaceIndex != -1) {
+			listTypes = argument.substring(spaceIndex + 1);
+			StringTokenizer st = new StringTokenizer(listTypes, ";");
+			while (st.hasMoreTokens()) {
+				String type = st.nextToken();
+				for (int i = 0; i < HdfsMLSTFileFormater.AVAILABLE_TYPES.length; i++) {
+					if (HdfsMLSTFileFormater.AVAILABLE_TYPES[i].equalsIgnoreCase(type)) {
+						types.add(HdfsMLSTFileFormater.AVAILABLE_TYPES[i]);
+						break;
+					}
+				}
+			}
+		}
+		session.setAttribute("MLST.types", types.toArray(new String[types.size()]));
+		session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_200_COMMAND_OKAY, "OPTS.MLST", listTypes));
+	}
+
+	/**
+	 * Select the algorithm of HASH, without an algorithm reply the selected one
+	 */
+	private void optsHash(FtpIoSession session, String argument) {
+		session.resetState();
+		int spaceIndex = argument.indexOf(' ');
+		if (spaceIndex == -1) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, HdFtpHASH.getAlgorithm(session)));
+			return;
+		}
+		String algorithm = argument.substring(spaceIndex + 1).trim();
+		for (int i = 0; i < HdFtpHASH.ALGORITHMS.length; i++) {
+			if (HdFtpHASH.ALGORITHMS[i].equalsIgnoreCase(algorithm)) {
+				session.setAttribute(HdFtpHASH.ATTR_ALGORITHM, HdFtpHASH.ALGORITHMS[i]);
+				session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, HdFtpHASH.ALGORITHMS[i]));
+				return;
+			}
+		}
+		session.write(new DefaultFtpReply(FtpReply.REPLY_504_COMMAND_NOT_IMPLEMENTED_FOR_THAT_PARAMETER, "Unknown algorithm, current selection not changed."));
+	}
+}
@@ -0,0 +1,81 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.FtpServerConfigurationException;
+import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
+import org.apache.ftpserver.usermanager.PasswordEncryptor;
+import org.apache.hadoop.util.StringUtils;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Password encryptor of salted PBKDF2 hashes, stored as {PBKDF2}iterations:salt:hash in hex.
+ * Passwords stored as MD5 by an earlier version still match, they are replaced by PBKDF2 hashes
+ * when the users are saved with new passwords.
+ */
+public class HdFtpPbkdf2PasswordEncryptor implements PasswordEncryptor {
+
+	public static final String PREFIX = "{PBKDF2}";
+
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+	private static final int SALT_LENGTH = 16;	// bytes
+
+	private static final int KEY_LENGTH = 160;	// bits
+
+	private int iterations;
+
+	private SecureRandom random = new SecureRandom();
+
+	private PasswordEncryptor legacy = new Md5PasswordEncryptor();
+
+	/**
+	 * Constructor - set the cost of new hashes
+	 *
+	 * @param iterations number of PBKDF2 iterations of new hashes
+	 */
+	public HdFtpPbkdf2PasswordEncryptor(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public String encrypt(String password) {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		byte[] hash = hash(password, salt, iterations);
+		return PREFIX + iterations + ":" + StringUtils.byteToHexString(salt) + ":" + StringUtils.byteToHexString(hash);
+	}
+
+	public boolean matches(String passwordToCheck, String storedPassword) {
+		if (storedPassword == null) {
+			return false;
+		}
+		if (!storedPassword.startsWith(PREFIX)) {
+			return legacy.matches(passwordToCheck, storedPassword);
+		}
+		String[] fields = storedPassword.substring(PREFIX.length()).split(":");
+		if (fields.length != 3) {
+			return false;
+		}
+		try {
+			byte[] salt = StringUtils.hexStringToByte(fields[1]);
+			byte[] hash = hash(passwordToCheck, salt, Integer.parseInt(fields[0]));
+			return MessageDigest.isEqual(hash, StringUtils.hexStringToByte(fields[2]));
+		} catch (RuntimeException e) {
+			return false;	// malformed stored password
+		}
+	}
+
+	private static byte[] hash(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new FtpServerConfigurationException(ALGORITHM + " is not supported by the JVM", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+}
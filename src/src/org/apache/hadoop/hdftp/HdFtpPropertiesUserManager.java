@@ -23,15 +23,21 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 /**
- * Extended AbstractUserManager to use  HdfsUser
+ * Extended AbstractUserManager to use  HdfsUser.
+ * The users are held in an immutable snapshot behind a volatile reference, so logins look up users
+ * without locking. save, delete and refresh build a new snapshot under a lock and publish it,
+ * reload does the same for changes of the file picked up by {@link HdFtpUserFileWatcher}.
  */
 public class HdFtpPropertiesUserManager implements UserManager {
 
@@ -61,13 +67,25 @@ public class HdFtpPropertiesUserManager implements UserManager {
     
     private static final String ATTR_FILE_REPLICATION = "filereplication";
     
+    private static final String ATTR_BUFFER_SIZE = "buffersize";
+    
 	private static final String ATTR_GROUP = "group";
 
-	private HashMap<String, HdFtpUser> usersCache;
+	private volatile Map<String, HdFtpUser> usersCache = Collections.emptyMap();
+
+	private final Object writeLock = new Object();
 
 	private File userDataFile = null;
 
 	private PasswordEncryptor passwordEncryptor;
+
+	private HdFtpCredentialCache credentialCache = null;
+
+	private AtomicLong reloads = new AtomicLong();
+
+	private AtomicLong reloadFailures = new AtomicLong();
+
+	private volatile long lastReloadTime = 0;
 	
 	private String adminName;
 
@@ -78,7 +96,7 @@ public class HdFtpPropertiesUserManager implements UserManager {
 		this.adminName = adminName;
 		this.passwordEncryptor = passwordEncryptor;
 		this.userDataFile = userDataFile;
-		loadFromFile(userDataFile);
+		usersCache = loadFromFile(userDataFile);
 	}
 	/**
 	 * Retrieve the file used to load and store users
@@ -117,15 +135,35 @@ public class HdFtpPropertiesUserManager implements UserManager {
 		this.passwordEncryptor = passwordEncryptor;
 	}
 
+	/**
+	 * Get the cache of verified credentials
+	 *
+	 * @return the cache, null if every login is verified by the password encryptor
+	 */
+	public HdFtpCredentialCache getCredentialCache() {
+		return credentialCache;
+	}
+
+	/**
+	 * Set the cache of verified credentials, so repeated logins don't compute the password hash
+	 *
+	 * @param credentialCache the cache, null is disabled
+	 */
+	public void setCredentialCache(HdFtpCredentialCache credentialCache) {
+		this.credentialCache = credentialCache;
+	}
+
 	/**
 	 * Initialize user manager.
+	 *
+	 * @return snapshot of the users of the file
 	 */
-	private void loadFromFile(File userDataFile) {
+	private Map<String, HdFtpUser> loadFromFile(File userDataFile) {
 		FileReader reader = null;
 		BufferedReader br = null;
 		try {
 			if (userDataFile == null || !userDataFile.exists()) {
-				LOG.error("User data file not found on file system : ", userDataFile.getPath());
+				LOG.error("User data file not found on file system : {}", userDataFile);
 				throw new FtpServerConfigurationException(
                          "User data file specified but could not be located on the file system : "
                                  + userDataFile.getPath());
@@ -134,7 +172,7 @@ public class HdFtpPropertiesUserManager implements UserManager {
 			reader = new FileReader(userDataFile);
 			br = new BufferedReader(reader);
 			String str = null;
-			usersCache = new HashMap<String, HdFtpUser>();
+			Map<String, HdFtpUser> users = new HashMap<String, HdFtpUser>();
 			HashMap<String, String> userProps = new HashMap<String, String>();
 			String username;
 			HdFtpUser user;
@@ -143,9 +181,9 @@ public class HdFtpPropertiesUserManager implements UserManager {
 				if (str.startsWith(PREFIX)) {
 					String[] prop = str.split("\\.", 4);
 					username = prop[2];
-					if (!usersCache.containsKey(username)) {
+					if (!users.containsKey(username)) {
 						user = new HdFtpUser(username);
-						usersCache.put(username, user);
+						users.put(username, user);
 					}
 					prop = prop[3].split("=", 2);
 					userProps.put(username + prop[0], prop[1]);
@@ -154,7 +192,7 @@ public class HdFtpPropertiesUserManager implements UserManager {
 			br.close();
 			reader.close();
 			
-			Iterator<Entry<String, HdFtpUser>> iter = usersCache.entrySet().iterator();
+			Iterator<Entry<String, HdFtpUser>> iter = users.entrySet().iterator();
 			while (iter.hasNext()) {
 				Entry<String, HdFtpUser> entry = iter.next();
 				user = entry.getValue();
@@ -166,6 +204,7 @@ public class HdFtpPropertiesUserManager implements UserManager {
 				user.setMaxIdleTime(getInteger(userProps.get(username + ATTR_MAX_IDLE_TIME), 0));
 				user.setGroup(userProps.get(username + ATTR_GROUP));
 				user.setFileReplication((short) getInteger(userProps.get(username + ATTR_FILE_REPLICATION), 0));
+				user.setBufferSize(getInteger(userProps.get(username + ATTR_BUFFER_SIZE), 0));
 				
 				List<Authority> authorities = new ArrayList<Authority>();
 				if (getBoolean(userProps.get(username + ATTR_WRITE_PERM), true))
@@ -179,6 +218,7 @@ public class HdFtpPropertiesUserManager implements UserManager {
 				user.setAuthorities(authorities);
 			}
 			userProps.clear();
+			return Collections.unmodifiableMap(users);
 		} catch (IOException e) {
 			throw new FtpServerConfigurationException("Error loading user data file : " + userDataFile.getAbsolutePath(), e);
 		} finally {
@@ -198,15 +238,22 @@ public class HdFtpPropertiesUserManager implements UserManager {
 	/**
 	 * Save user data. Store the properties.
 	 */
-	public synchronized void save(User user) throws FtpException {
-		usersCache.put(user.getName(), (HdFtpUser) user);
-		saveUserData();
+	public void save(User user) throws FtpException {
+		synchronized (writeLock) {
+			Map<String, HdFtpUser> users = new HashMap<String, HdFtpUser>(usersCache);
+			users.put(user.getName(), (HdFtpUser) user);
+			saveUserData(users);
+			usersCache = Collections.unmodifiableMap(users);
+		}
 	}
 
 	/**
+	 * Write the users to the user data file
+	 *
+	 * @param users the users to write
 	 * @throws FtpException
 	 */
-	private void saveUserData() throws FtpException {
+	private void saveUserData(Map<String, HdFtpUser> users) throws FtpException {
 		File dir = userDataFile.getAbsoluteFile().getParentFile();
 		if (dir != null && !dir.exists() && !dir.mkdirs()) {
 			String dirName = dir.getAbsolutePath();
@@ -220,7 +267,7 @@ public class HdFtpPropertiesUserManager implements UserManager {
 			fos = new FileWriter(newDataFile);
 			fos.write("Generated file - don't edit (please)\n");
 			
-			Iterator<Entry<String, HdFtpUser>> iter = usersCache.entrySet().iterator();
+			Iterator<Entry<String, HdFtpUser>> iter = users.entrySet().iterator();
 			HdFtpUser user;
 			while (iter.hasNext()) {
 				Entry<String, HdFtpUser> entry = iter.next();
@@ -247,6 +294,7 @@ public class HdFtpPropertiesUserManager implements UserManager {
 	            fos.write("\n" + PREFIX + username + "." + ATTR_MAX_UPLOAD_RATE + "=" + transferRateRequest.getMaxUploadRate());
 	            fos.write("\n" + PREFIX + username + "." + ATTR_MAX_DOWNLOAD_RATE + "=" + transferRateRequest.getMaxDownloadRate());
 	            fos.write("\n" + PREFIX + username + "." + ATTR_FILE_REPLICATION + "=" + user.getFileReplication());
+	            fos.write("\n" + PREFIX + username + "." + ATTR_BUFFER_SIZE + "=" + user.getBufferSize());
 	            fos.write("\n" + PREFIX + username + "." + ATTR_GROUP + "=" + user.getGroup());
 			}
 			fos.flush();
@@ -262,39 +310,40 @@ public class HdFtpPropertiesUserManager implements UserManager {
 	 * Delete an user. Removes all this user entries from the properties. After
 	 * removing the corresponding from the properties, save the data.
 	 */
-	public synchronized void delete(String usrName) throws FtpException {
-		usersCache.remove(usrName);
-		saveUserData();
+	public void delete(String usrName) throws FtpException {
+		synchronized (writeLock) {
+			Map<String, HdFtpUser> users = new HashMap<String, HdFtpUser>(usersCache);
+			users.remove(usrName);
+			saveUserData(users);
+			usersCache = Collections.unmodifiableMap(users);
+		}
 	}
 
 	/**
 	 * Get all user names.
 	 */
-	public synchronized String[] getAllUserNames() {
+	public String[] getAllUserNames() {
 		return usersCache.keySet().toArray(new String[0]);
 	}
 
 	/**
 	 * Load user data.
 	 */
-	public synchronized HdFtpUser getUserByName(String userName) {
-		if (!usersCache.containsKey(userName)) {
-			return null;
-		}
+	public HdFtpUser getUserByName(String userName) {
 		return usersCache.get(userName);
 	}
 
 	/**
 	 * User existence check
 	 */
-	public synchronized boolean doesExist(String userName) {
+	public boolean doesExist(String userName) {
 		return usersCache.containsKey(userName);
 	}
 
 	/**
 	 * User authenticate method
 	 */
-	public synchronized User authenticate(Authentication authentication)
+	public User authenticate(Authentication authentication)
 				  throws AuthenticationFailedException {
 		
 		if (authentication instanceof UsernamePasswordAuthentication) {
@@ -310,15 +359,23 @@ public class HdFtpPropertiesUserManager implements UserManager {
 				password = "";
 			}
 
+			HdFtpCredentialCache cache = credentialCache;
+			if (cache != null && cache.isVerified(user.getName(), password, user.getPassword())) {
+				return user;
+			}
 			if (passwordEncryptor.matches(password, user.getPassword())) {
+				if (cache != null) {
+					cache.putVerified(user.getName(), password, user.getPassword());
+				}
 				return user;
 			} else {
 				throw new AuthenticationFailedException("Authentication failed");
 			}
 
 		} else if (authentication instanceof AnonymousAuthentication) {
-			if (doesExist("anonymous")) {
-				return getUserByName("anonymous");
+			HdFtpUser user = getUserByName("anonymous");
+			if (user != null) {
+				return user;
 			} else {
 				throw new AuthenticationFailedException("Authentication failed");
 			}
@@ -331,10 +388,9 @@ public class HdFtpPropertiesUserManager implements UserManager {
 	/**
 	 * Close the user manager - remove existing entries.
 	 */
-	public synchronized void dispose() {
-		if (usersCache != null) {
-			usersCache.clear();
-			usersCache = null;
+	public void dispose() {
+		synchronized (writeLock) {
+			usersCache = Collections.emptyMap();
 			userDataFile = null;
 		}
 	}
@@ -353,14 +409,69 @@ public class HdFtpPropertiesUserManager implements UserManager {
      * Reloads the contents of the users.properties file. This allows any manual modifications to the file to be recognised by the running server.
      */
     public void refresh() {
-        synchronized (usersCache) {
+        synchronized (writeLock) {
             if (userDataFile != null) {
-                LOG.debug("Refreshing user manager using file: " + userDataFile.getAbsolutePath());
-                loadFromFile(userDataFile);
+                LOG.debug("Refreshing user manager using file: {}", userDataFile.getAbsolutePath());
+                usersCache = loadFromFile(userDataFile);
             }
         }
     }
     
+    /**
+     * Reload the users from the user data file and publish them at once, logins keep using the
+     * current users until the file is parsed. A file which can't be parsed is reported and the
+     * current users are kept.
+     * @return true if the users are reloaded
+     */
+    public boolean reload() {
+        synchronized (writeLock) {
+            if (userDataFile == null) {
+                return false;
+            }
+            Map<String, HdFtpUser> users;
+            try {
+                users = loadFromFile(userDataFile);
+            } catch (RuntimeException e) {
+                reloadFailures.incrementAndGet();
+                LOG.error("Reload users from {} failed, the current users are kept.", userDataFile, e);
+                return false;
+            }
+            usersCache = users;
+            reloads.incrementAndGet();
+            lastReloadTime = System.currentTimeMillis();
+            LOG.info("Reloaded {} users from {} .", users.size(), userDataFile);
+            return true;
+        }
+    }
+
+    /**
+     * Get number of users
+     */
+    public int getUserCount() {
+        return usersCache.size();
+    }
+
+    /**
+     * Get number of reloads of the user data file
+     */
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    /**
+     * Get number of reloads which failed to parse the user data file
+     */
+    public long getReloadFailureCount() {
+        return reloadFailures.get();
+    }
+
+    /**
+     * Get the time of the last reload, 0 if the users were never reloaded
+     */
+    public long getLastReloadTime() {
+        return lastReloadTime;
+    }
+
     private int getInteger(String str, int defaultValue) {
     	try {
     		int value = Integer.parseInt(str);
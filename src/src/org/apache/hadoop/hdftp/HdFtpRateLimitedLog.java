@@ -0,0 +1,119 @@
+package org.apache.hadoop.hdftp;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Logs errors of a kind at most limit times per interval, the suppressed errors are counted and
+ * reported by the next logged error of the kind. The kind of an error is its message format,
+ * so e.g. an unavailable NameNode failing every file of a listing is reported by a few lines.
+ */
+public class HdFtpRateLimitedLog {
+
+	private static volatile int limit = 10;
+
+	private static volatile long interval = 60000;
+
+	private Logger log;
+
+	private ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+
+	private static class Window {
+		long start = System.currentTimeMillis();
+		int count = 0;
+		int suppressed = 0;
+	}
+
+	/**
+	 * Set the rate of all rate limited logs
+	 *
+	 * @param limit max number of errors of a kind logged per interval, 0 is no limit
+	 * @param interval milliseconds
+	 */
+	public static void setRate(int limit, long interval) {
+		HdFtpRateLimitedLog.limit = limit;
+		HdFtpRateLimitedLog.interval = interval;
+	}
+
+	/**
+	 * Constructor - set the logger the errors are written to
+	 */
+	public HdFtpRateLimitedLog(Logger log) {
+		this.log = log;
+	}
+
+	/**
+	 * Log an error unless too many errors of the kind were logged in the interval
+	 *
+	 * @param format message format, the kind of the error
+	 * @param args arguments of the format, the last one may be the exception
+	 */
+	public void error(String format, Object... args) {
+		if (!log.isErrorEnabled()) {
+			return;
+		}
+		int suppressed = admit(format);
+		if (suppressed > 0) {
+			log.error("{} errors like \"{}\" were suppressed.", suppressed, format);
+		}
+		if (suppressed >= 0) {
+			log.error(format, args);
+		}
+	}
+
+	/**
+	 * Log a warning unless too many warnings of the kind were logged in the interval
+	 *
+	 * @param format message format, the kind of the warning
+	 * @param args arguments of the format, the last one may be the exception
+	 */
+	public void warn(String format, Object... args) {
+		if (!log.isWarnEnabled()) {
+			return;
+		}
+		int suppressed = admit(format);
+		if (suppressed > 0) {
+			log.warn("{} warnings like \"{}\" were suppressed.", suppressed, format);
+		}
+		if (suppressed >= 0) {
+			log.warn(format, args);
+		}
+	}
+
+	/**
+	 * Count a message of a kind
+	 *
+	 * @return -1 if the message is suppressed, else the number of messages suppressed since the last one logged
+	 */
+	private int admit(String format) {
+		if (limit <= 0) {
+			return 0;
+		}
+		Window window = windows.get(format);
+		if (window == null) {
+			Window created = new Window();
+			window = windows.putIfAbsent(format, created);
+			if (window == null) {
+				window = created;
+			}
+		}
+		synchronized (window) {
+			long now = System.currentTimeMillis();
+			int suppressed = 0;
+			if (now - window.start >= interval) {
+				window.start = now;
+				window.count = 0;
+				suppressed = window.suppressed;
+				window.suppressed = 0;
+			}
+			if (window.count < limit) {
+				window.count++;
+				return suppressed;
+			}
+			window.suppressed++;
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.FtpReply;
+
+/**
+ * A line of a multi-line reply which is sent while the command is still running, e.g. the progress
+ * of a long command. The lines before the last one are sent as "code-text", the last one as "code text".
+ * The client reads the lines until the last one, so every line keeps its control connection alive.
+ */
+public class HdFtpReplyLine implements FtpReply {
+
+	private int code;
+
+	private String message;
+
+	private boolean last;
+
+	/**
+	 * Constructor - set the line
+	 *
+	 * @param code reply code of all lines of the reply
+	 * @param message text of the line, without line breaks
+	 * @param last is it the last line of the reply
+	 */
+	public HdFtpReplyLine(int code, String message, boolean last) {
+		this.code = code;
+		this.message = message.replace('\r', ' ').replace('\n', ' ');
+		this.last = last;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return code + (last ? " " : "-") + message + "\r\n";
+	}
+}
@@ -0,0 +1,88 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.impl.SITE;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SITE command with the SITE commands of HdFtp, the other SITE commands are handled by the SITE command of ftpserver
+ */
+public class HdFtpSITE extends SITE {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdFtpSITE.class);
+
+	private Map<String, Command> commands = new LinkedHashMap<String, Command>();
+
+	private Map<String, String> helps = new LinkedHashMap<String, String>();
+
+	/**
+	 * Add a SITE command
+	 *
+	 * @param name name of the SITE command
+	 * @param command the command
+	 * @param help description of SITE HELP
+	 */
+	public void addCommand(String name, Command command, String help) {
+		commands.put(name.toUpperCase(), command);
+		helps.put(name.toUpperCase(), help);
+	}
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		String argument = request.getArgument();
+		if (argument != null) {
+			int spaceIndex = argument.indexOf(' ');
+			if (spaceIndex != -1) {
+				argument = argument.substring(0, spaceIndex);
+			}
+			argument = argument.toUpperCase();
+		}
+
+		if ("HELP".equals(argument)) {
+			help(session, request, context);
+			return;
+		}
+		Command command = (argument == null) ? null : commands.get(argument);
+		if (command == null) {
+			super.execute(session, context, request);
+			return;
+		}
+		try {
+			command.execute(session, context, request);
+		} catch (Exception e) {
+			log.warn("SITE.execute()", e);
+			session.resetState();
+			session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_500_SYNTAX_ERROR_COMMAND_UNRECOGNIZED, "SITE", null));
+		}
+	}
+
+	/**
+	 * SITE HELP of ftpserver with the SITE commands of HdFtp
+	 */
+	private void help(FtpIoSession session, FtpRequest request, FtpServerContext context) {
+		session.resetState();
+		String message = LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_200_COMMAND_OKAY, "SITE.HELP", null).getMessage();
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> help : helps.entrySet()) {
+			sb.append(String.format("%-9s: %s\n", help.getKey(), help.getValue()));
+		}
+		int end = message.lastIndexOf("End.");
+		if (end == -1) {
+			message = message + "\n" + sb;
+		} else {
+			message = message.substring(0, end) + sb + message.substring(end);
+		}
+		session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, message));
+	}
+}
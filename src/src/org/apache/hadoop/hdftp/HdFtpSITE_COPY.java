@@ -0,0 +1,139 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SITE COPY &lt;src&gt; &lt;dst&gt; - copy a file inside HDFS without sending it through the client.
+ * Paths with spaces are quoted by double quotes, without quotes the last word is the target.
+ * A multi-line 150 reply is started when the copy starts, it gets a line with the progress every few
+ * seconds and ends when the copy has finished, then the final reply is sent. So the client sees the
+ * progress of a long copy and its control connection doesn't time out.
+ */
+public class HdFtpSITE_COPY extends AbstractCommand {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdFtpSITE_COPY.class);
+
+	private static final transient HdFtpRateLimitedLog errors = new HdFtpRateLimitedLog(log);
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		session.resetState();
+		String[] args = parseArguments(request.getArgument());
+		if (args == null) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+					"Syntax: SITE COPY <src> <dst>, quote paths with spaces by \"."));
+			return;
+		}
+
+		FtpFile src = session.getFileSystemView().getFile(args[1]);
+		FtpFile dst = session.getFileSystemView().getFile(args[2]);
+		if (dst.isDirectory()) {
+			dst = session.getFileSystemView().getFile(dst.getAbsolutePath() + "/" + src.getName());
+		}
+		if (!src.doesExist() || !src.isFile()) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN, args[1] + ": No such file."));
+			return;
+		}
+
+		session.write(new HdFtpReplyLine(FtpReply.REPLY_150_FILE_STATUS_OKAY,
+				"Copying " + src.getAbsolutePath() + " (" + src.getSize() + " bytes) to " + dst.getAbsolutePath() + ".", false));
+		long start = System.currentTimeMillis();
+		try {
+			int parts;
+			try {
+				parts = ((HdfsFtpFile) src).copyTo((HdfsFtpFile) dst, new ProgressReply(session));
+			} finally {
+				session.write(new HdFtpReplyLine(FtpReply.REPLY_150_FILE_STATUS_OKAY, "Copy ended.", true));
+			}
+			long time = System.currentTimeMillis() - start;
+			log.info("SITE COPY {} to {}: {} bytes in {} ms, {} ranges.",
+					new Object[] { src.getAbsolutePath(), dst.getAbsolutePath(), src.getSize(), time, parts });
+			session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY,
+					"Copied " + src.getSize() + " bytes in " + time + " ms to " + dst.getAbsolutePath() + "."));
+		} catch (FileNotFoundException e) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN, args[1] + ": No such file."));
+		} catch (IOException e) {
+			errors.warn("SITE COPY {} to {} failed.", src.getAbsolutePath(), dst.getAbsolutePath(), e);
+			session.write(new DefaultFtpReply(FtpReply.REPLY_553_REQUESTED_ACTION_NOT_TAKEN_FILE_NAME_NOT_ALLOWED,
+					"Copy to " + dst.getAbsolutePath() + " failed: " + e.getMessage()));
+		}
+	}
+
+	/**
+	 * Sends the progress as a line of the 150 reply
+	 */
+	private static class ProgressReply implements HdfsParallelCopy.ProgressListener {
+
+		private FtpIoSession session;
+
+		ProgressReply(FtpIoSession session) {
+			this.session = session;
+		}
+
+		public void progress(long copied, long length) {
+			long percent = length == 0 ? 100 : copied * 100 / length;
+			session.write(new HdFtpReplyLine(FtpReply.REPLY_150_FILE_STATUS_OKAY,
+					copied + " of " + length + " bytes copied (" + percent + "%).", false));
+		}
+	}
+
+	/**
+	 * Split the argument of SITE into COPY, the source and the target
+	 *
+	 * @param argument e.g. COPY "dir/a file" target
+	 * @return the words, null if they aren't COPY and two paths
+	 */
+	static String[] parseArguments(String argument) {
+		if (argument == null) {
+			return null;
+		}
+		argument = argument.trim();
+		List<String> words = new ArrayList<String>();
+		boolean quoted = false;
+		int i = 0;
+		while (i < argument.length()) {
+			char c = argument.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '"') {
+				int end = argument.indexOf('"', i + 1);
+				if (end < 0) {
+					return null;
+				}
+				words.add(argument.substring(i + 1, end));
+				quoted = true;
+				i = end + 1;
+			} else {
+				int end = i;
+				while (end < argument.length() && !Character.isWhitespace(argument.charAt(end))) {
+					end++;
+				}
+				words.add(argument.substring(i, end));
+				i = end;
+			}
+		}
+		if (words.size() > 3 && !quoted) {
+			// an unquoted source with spaces, the target is the last word
+			int last = argument.length() - words.get(words.size() - 1).length();
+			String src = argument.substring(words.get(0).length(), last).trim();
+			return new String[] { words.get(0), src, words.get(words.size() - 1) };
+		}
+		if (words.size() != 3) {
+			return null;
+		}
+		return words.toArray(new String[3]);
+	}
+}
@@ -0,0 +1,44 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * SITE TRASH - show the background deletion of directory trees, admin only
+ */
+public class HdFtpSITE_TRASH extends AbstractCommand {
+
+	public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException, FtpException {
+		session.resetState();
+		if (!context.getUserManager().isAdmin(session.getUser().getName())) {
+			session.write(LocalizedFtpReply.translate(session, request, context, FtpReply.REPLY_530_NOT_LOGGED_IN, "SITE", null));
+			return;
+		}
+		HdfsAsyncDeleter deleter = ((HdfsFileSystemView) session.getFileSystemView()).getAsyncDeleter();
+		if (deleter == null) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, "Background deletion is disabled, directories are deleted at once."));
+			return;
+		}
+		Path current = deleter.getCurrent();
+		StringBuilder sb = new StringBuilder(256);
+		sb.append('\n');
+		sb.append("Trash Directory          : ").append(deleter.getTrashDir()).append('\n');
+		sb.append("Pending Directories      : ").append(deleter.getPendingCount()).append('\n');
+		sb.append("Deleting                 : ").append(current == null ? "-" : current.getName()).append('\n');
+		sb.append("Moved Directories        : ").append(deleter.getMovedCount()).append('\n');
+		sb.append("Deleted Directories      : ").append(deleter.getDrainedCount()).append('\n');
+		sb.append("Deleted Paths            : ").append(deleter.getDeletedCount()).append('\n');
+		sb.append("Failures                 : ").append(deleter.getFailureCount()).append('\n');
+		sb.append('\n');
+		session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, sb.toString()));
+	}
+}
@@ -3,16 +3,25 @@ package org.apache.hadoop.hdftp;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.ftpserver.DataConnectionConfigurationFactory;
 import org.apache.ftpserver.FtpServerFactory;
 //import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.FtpServer;
-import org.apache.log4j.PropertyConfigurator;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.ftplet.Ftplet;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.xml.DOMConfigurator;
 import org.apache.ftpserver.ConnectionConfigFactory;
 import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.ClearTextPasswordEncryptor;
 import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
+import org.apache.ftpserver.usermanager.PasswordEncryptor;
+import org.apache.ftpserver.usermanager.SaltedPasswordEncryptor;
 import org.apache.ftpserver.ssl.SslConfigurationFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +35,7 @@ public class HdFtpServer {
 
 	private static String CONF_FILE =  "conf/hdftp.properties";
 	private static String CONF_USER = "conf/users.properties";
-	private static String CONF_LOG = "conf/log4j.properties";
+	private static String CONF_LOG = "conf/log4j.xml";
 	private static String SSL_KEY_FILE = "conf/ftpserver.jks";
 	private static String HDFS_SITE = "conf/hdfs-site.xml";
 
@@ -36,13 +45,49 @@ public class HdFtpServer {
 	private static String sslPassivePorts = null;
 	private static String sslPassword = null;
 	private static String hdfsSuperuser = null;
+	private static boolean hdfsProxyUsers = false;
+	private static int hdfsProxyPoolSize = 100;
+	private static int hdfsProxyIdleTimeout = 300000;	// milliseconds
+	private static int homeRevalidateInterval = 0;		// milliseconds, 0 is never
+	private static int ioBufferSize = 0;				// bytes, 0 is io.file.buffer.size of hdfs-site.xml
+	private static int readAheadDepth = 0;				// 0 is disabled
+	private static int writeBehindDepth = 0;			// 0 is disabled
+	private static long bufferPoolSize = 0;				// bytes, 0 is no limit
+	private static long bufferPoolWait = 30000;			// milliseconds, 0 is no limit
+	private static int copyParallelism = 4;
+	private static String trashDir = null;				// null is delete at once
+	private static int trashBatchSize = 1000;
+	private static int trashBatchInterval = 1000;		// milliseconds
 
 	private static int maxLogins = 0; 		// no limit
 	private static int maxAnonLogins = -1;	// disabled
 	private static int maxThreads = 0;		// no limit
 	
+	private static int listPageSize = 1000;	// 0 is not streaming
+	
+	private static int cacheTtl = 3000;		// milliseconds, 0 is disabled
+	private static int cacheNegativeTtl = 1000;	// milliseconds, 0 is disabled
+	private static int cacheSize = 10000;
+	private static int cacheMaxListing = 1000;
+	private static int checksumCacheSize = 10000;	// 0 is disabled
+	
+	private static boolean jmxMetrics = true;
+	
+	private static String passwordEncryptor = "md5";	// md5, salted, pbkdf2, clear or a class name
+	private static int pbkdf2Iterations = 20000;
+	private static int credentialCacheSize = 10000;	// 0 is disabled
+	private static int credentialCacheTtl = 300000;	// milliseconds, 0 is disabled
+	
+	private static int usersReloadDelay = 1000;		// milliseconds, 0 is not reloaded
+
+	private static int errorLogLimit = 10;			// 0 is no limit
+	private static int errorLogInterval = 60000;	// milliseconds
+	
 	private static String ftpadmin = "admin";
 	
+	private static HdfsFileSystemFactory fileSystem = null;
+	private static HdFtpUserFileWatcher usersWatcher = null;
+	
 	public static void main(String[] args) throws Exception {
 		//String hdftp_home = System.getProperty("java.class.path");
 		String hdftp_home = HdFtpServer.class.getProtectionDomain().getCodeSource().getLocation().getPath();
@@ -50,15 +95,11 @@ public class HdFtpServer {
 			hdftp_home = hdftp_home + "../";
 		hdftp_home = hdftp_home.substring(0, hdftp_home.lastIndexOf("/") + 1);
 		
-		CONF_FILE = hdftp_home + CONF_FILE;
-		CONF_USER = hdftp_home + CONF_USER;
 		CONF_LOG = hdftp_home + CONF_LOG;
-		SSL_KEY_FILE = hdftp_home + SSL_KEY_FILE;
-		HDFS_SITE = hdftp_home + HDFS_SITE;
 		
 		System.setProperty("hdftp.log.dir", hdftp_home + "logs");	//	set logs directory
-		PropertyConfigurator.configure(CONF_LOG);	// load Logger configure
-		loadConfig();
+		DOMConfigurator.configure(CONF_LOG);	// load Logger configure
+		loadConfig(hdftp_home);
 		
 		if (args.length > 0)
 			System.setProperty("hadoop.home.dir", args[0]);
@@ -73,6 +114,20 @@ public class HdFtpServer {
 		}
 	}
 
+	/**
+	 * Load configuration from the conf directory of a home directory, the logger is not configured.
+	 * An embedded server, e.g. of a load test, is created by getConfiguration() after it.
+	 * @param hdftpHome directory of the conf directory, ends with "/"
+	 * @throws IOException
+	 */
+	public static void loadConfig(String hdftpHome) throws IOException {
+		CONF_FILE = hdftpHome + "conf/hdftp.properties";
+		CONF_USER = hdftpHome + "conf/users.properties";
+		SSL_KEY_FILE = hdftpHome + "conf/ftpserver.jks";
+		HDFS_SITE = hdftpHome + "conf/hdfs-site.xml";
+		loadConfig();
+	}
+
 	/**
 	 * Load configuration
 	 * @throws IOException
@@ -122,6 +177,95 @@ public class HdFtpServer {
 			System.exit(1);
 		}
 		
+		hdfsProxyUsers = Boolean.parseBoolean(props.getProperty("hdfs-proxy-users"));
+		log.info("hdfs-proxy-users is " + hdfsProxyUsers);
+		
+		try {
+			hdfsProxyPoolSize = Integer.parseInt(props.getProperty("hdfs-proxy-pool-size"));
+			log.info("hdfs-proxy-pool-size is seted. it is " + hdfsProxyPoolSize);
+		} catch (Exception e) {
+			log.info("hdfs-proxy-pool-size is not set. default is " + hdfsProxyPoolSize);
+		}
+		
+		try {
+			hdfsProxyIdleTimeout = Integer.parseInt(props.getProperty("hdfs-proxy-idle-timeout"));
+			log.info("hdfs-proxy-idle-timeout is seted. it is " + hdfsProxyIdleTimeout);
+		} catch (Exception e) {
+			log.info("hdfs-proxy-idle-timeout is not set. default is " + hdfsProxyIdleTimeout);
+		}
+		
+		try {
+			homeRevalidateInterval = Integer.parseInt(props.getProperty("home-revalidate-interval"));
+			log.info("home-revalidate-interval is seted. it is " + homeRevalidateInterval);
+		} catch (Exception e) {
+			log.info("home-revalidate-interval is not set. default is " + homeRevalidateInterval);
+		}
+		
+		try {
+			ioBufferSize = Integer.parseInt(props.getProperty("io-buffer-size"));
+			log.info("io-buffer-size is seted. it is " + ioBufferSize);
+		} catch (Exception e) {
+			log.info("io-buffer-size is not set. default is " + ioBufferSize);
+		}
+		
+		try {
+			readAheadDepth = Integer.parseInt(props.getProperty("read-ahead-depth"));
+			log.info("read-ahead-depth is seted. it is " + readAheadDepth);
+		} catch (Exception e) {
+			log.info("read-ahead-depth is not set. default is " + readAheadDepth);
+		}
+		
+		try {
+			writeBehindDepth = Integer.parseInt(props.getProperty("write-behind-depth"));
+			log.info("write-behind-depth is seted. it is " + writeBehindDepth);
+		} catch (Exception e) {
+			log.info("write-behind-depth is not set. default is " + writeBehindDepth);
+		}
+		
+		try {
+			bufferPoolSize = Long.parseLong(props.getProperty("buffer-pool-size"));
+			log.info("buffer-pool-size is seted. it is " + bufferPoolSize);
+		} catch (Exception e) {
+			log.info("buffer-pool-size is not set. default is " + bufferPoolSize);
+		}
+		
+		try {
+			bufferPoolWait = Long.parseLong(props.getProperty("buffer-pool-wait"));
+			log.info("buffer-pool-wait is seted. it is " + bufferPoolWait);
+		} catch (Exception e) {
+			log.info("buffer-pool-wait is not set. default is " + bufferPoolWait);
+		}
+		
+		try {
+			copyParallelism = Integer.parseInt(props.getProperty("copy-parallelism"));
+			log.info("copy-parallelism is seted. it is " + copyParallelism);
+		} catch (Exception e) {
+			log.info("copy-parallelism is not set. default is " + copyParallelism);
+		}
+		
+		trashDir = props.getProperty("trash-dir");
+		if (trashDir != null && trashDir.trim().length() > 0) {
+			trashDir = trashDir.trim();
+			log.info("trash-dir is seted. it is " + trashDir);
+		} else {
+			trashDir = null;
+			log.info("trash-dir is not set. directories are deleted at once.");
+		}
+		
+		try {
+			trashBatchSize = Integer.parseInt(props.getProperty("trash-batch-size"));
+			log.info("trash-batch-size is seted. it is " + trashBatchSize);
+		} catch (Exception e) {
+			log.info("trash-batch-size is not set. default is " + trashBatchSize);
+		}
+		
+		try {
+			trashBatchInterval = Integer.parseInt(props.getProperty("trash-batch-interval"));
+			log.info("trash-batch-interval is seted. it is " + trashBatchInterval);
+		} catch (Exception e) {
+			log.info("trash-batch-interval is not set. default is " + trashBatchInterval);
+		}
+		
 		try {
 			maxLogins = Integer.parseInt(props.getProperty("max-logins"));
 			log.info("max-logins is seted. it is " + maxLogins);
@@ -143,6 +287,105 @@ public class HdFtpServer {
 			log.info("max-threads is not set. default is " + maxThreads);
 		}
 		
+		try {
+			listPageSize = Integer.parseInt(props.getProperty("list-page-size"));
+			log.info("list-page-size is seted. it is " + listPageSize);
+		} catch (Exception e) {
+			log.info("list-page-size is not set. default is " + listPageSize);
+		}
+		
+		try {
+			cacheTtl = Integer.parseInt(props.getProperty("cache-ttl"));
+			log.info("cache-ttl is seted. it is " + cacheTtl);
+		} catch (Exception e) {
+			log.info("cache-ttl is not set. default is " + cacheTtl);
+		}
+		
+		try {
+			cacheNegativeTtl = Integer.parseInt(props.getProperty("cache-negative-ttl"));
+			log.info("cache-negative-ttl is seted. it is " + cacheNegativeTtl);
+		} catch (Exception e) {
+			log.info("cache-negative-ttl is not set. default is " + cacheNegativeTtl);
+		}
+		
+		try {
+			cacheSize = Integer.parseInt(props.getProperty("cache-size"));
+			log.info("cache-size is seted. it is " + cacheSize);
+		} catch (Exception e) {
+			log.info("cache-size is not set. default is " + cacheSize);
+		}
+		
+		try {
+			cacheMaxListing = Integer.parseInt(props.getProperty("cache-max-listing"));
+			log.info("cache-max-listing is seted. it is " + cacheMaxListing);
+		} catch (Exception e) {
+			log.info("cache-max-listing is not set. default is " + cacheMaxListing);
+		}
+		
+		try {
+			checksumCacheSize = Integer.parseInt(props.getProperty("checksum-cache-size"));
+			log.info("checksum-cache-size is seted. it is " + checksumCacheSize);
+		} catch (Exception e) {
+			log.info("checksum-cache-size is not set. default is " + checksumCacheSize);
+		}
+		
+		try {
+			errorLogLimit = Integer.parseInt(props.getProperty("error-log-limit"));
+			log.info("error-log-limit is seted. it is " + errorLogLimit);
+		} catch (Exception e) {
+			log.info("error-log-limit is not set. default is " + errorLogLimit);
+		}
+		
+		try {
+			errorLogInterval = Integer.parseInt(props.getProperty("error-log-interval"));
+			log.info("error-log-interval is seted. it is " + errorLogInterval);
+		} catch (Exception e) {
+			log.info("error-log-interval is not set. default is " + errorLogInterval);
+		}
+		HdFtpRateLimitedLog.setRate(errorLogLimit, errorLogInterval);
+		
+		if (props.getProperty("jmx-metrics") != null) {
+			jmxMetrics = Boolean.parseBoolean(props.getProperty("jmx-metrics").trim());
+			log.info("jmx-metrics is seted. it is " + jmxMetrics);
+		} else {
+			log.info("jmx-metrics is not set. default is " + jmxMetrics);
+		}
+		
+		if (props.getProperty("password-encryptor") != null && props.getProperty("password-encryptor").trim().length() > 0) {
+			passwordEncryptor = props.getProperty("password-encryptor").trim();
+			log.info("password-encryptor is seted. it is " + passwordEncryptor);
+		} else {
+			log.info("password-encryptor is not set. default is " + passwordEncryptor);
+		}
+		
+		try {
+			pbkdf2Iterations = Integer.parseInt(props.getProperty("pbkdf2-iterations"));
+			log.info("pbkdf2-iterations is seted. it is " + pbkdf2Iterations);
+		} catch (Exception e) {
+			log.info("pbkdf2-iterations is not set. default is " + pbkdf2Iterations);
+		}
+		
+		try {
+			credentialCacheSize = Integer.parseInt(props.getProperty("credential-cache-size"));
+			log.info("credential-cache-size is seted. it is " + credentialCacheSize);
+		} catch (Exception e) {
+			log.info("credential-cache-size is not set. default is " + credentialCacheSize);
+		}
+		
+		try {
+			credentialCacheTtl = Integer.parseInt(props.getProperty("credential-cache-ttl"));
+			log.info("credential-cache-ttl is seted. it is " + credentialCacheTtl);
+		} catch (Exception e) {
+			log.info("credential-cache-ttl is not set. default is " + credentialCacheTtl);
+		}
+		
+		try {
+			usersReloadDelay = Integer.parseInt(props.getProperty("users-reload-delay"));
+			log.info("users-reload-delay is seted. it is " + usersReloadDelay);
+		} catch (Exception e) {
+			log.info("users-reload-delay is not set. default is " + usersReloadDelay);
+		}
+		
 	}
 	
 	/**
@@ -160,9 +403,61 @@ public class HdFtpServer {
 		config.setMaxThreads(maxThreads);
 		ftpserver.setConnectionConfig(config.createConnectionConfig());
 		
-		HdFtpPropertiesUserManager userManager = new HdFtpPropertiesUserManager(ftpadmin, new Md5PasswordEncryptor(), new File(CONF_USER));
+		HdFtpPropertiesUserManager userManager = new HdFtpPropertiesUserManager(ftpadmin,
+				createPasswordEncryptor(passwordEncryptor, pbkdf2Iterations), new File(CONF_USER));
+		if (credentialCacheSize > 0 && credentialCacheTtl > 0) {
+			userManager.setCredentialCache(new HdFtpCredentialCache(credentialCacheSize, credentialCacheTtl));
+		}
 		ftpserver.setUserManager(userManager);
-		ftpserver.setFileSystem(new HdfsFileSystemFactory(hdfsSuperuser, HDFS_SITE));
+		if (usersReloadDelay > 0) {
+			usersWatcher = new HdFtpUserFileWatcher(userManager, new File(CONF_USER), usersReloadDelay);
+			usersWatcher.start();
+		}
+		fileSystem = new HdfsFileSystemFactory(hdfsSuperuser, HDFS_SITE);
+		fileSystem.setMetadataCache(new HdfsMetadataCache(cacheTtl, cacheNegativeTtl, cacheSize, cacheMaxListing));
+		fileSystem.setChecksumCache(new HdfsChecksumCache(checksumCacheSize));
+		if (hdfsProxyUsers) {
+			fileSystem.setProxyUsers(hdfsProxyPoolSize, hdfsProxyIdleTimeout);
+		}
+		fileSystem.setHomeRevalidateInterval(homeRevalidateInterval);
+		fileSystem.setBufferSize(ioBufferSize);
+		fileSystem.setReadAheadDepth(readAheadDepth);
+		fileSystem.setWriteBehindDepth(writeBehindDepth);
+		fileSystem.setBufferPool(new HdfsBufferPool(bufferPoolSize, bufferPoolWait));
+		fileSystem.setCopyParallelism(copyParallelism);
+		if (trashDir != null) {
+			fileSystem.setAsyncDelete(trashDir, trashBatchSize, trashBatchInterval);
+		}
+		ftpserver.setFileSystem(fileSystem);
+		
+		Map<String, Ftplet> ftplets = new LinkedHashMap<String, Ftplet>();
+		ftplets.put("session", new HdFtpSessionFtplet());
+		if (jmxMetrics) {
+			HdFtpMetrics metrics = new HdFtpMetrics(fileSystem);
+			metrics.setUserManager(userManager);
+			ftplets.put("metrics", new HdFtpMetricsFtplet(metrics));
+			metrics.register(ManagementFactory.getPlatformMBeanServer());
+		}
+		ftpserver.setFtplets(ftplets);
+		
+		CommandFactoryFactory commands = new CommandFactoryFactory();
+		if (listPageSize > 0) {
+			commands.addCommand("LIST", new HdFtpLIST(listPageSize));
+			commands.addCommand("NLST", new HdFtpLIST(listPageSize));
+		}
+		// MLSD is always served with the HDFS facts, without streaming the listing is formatted at once
+		commands.addCommand("MLSD", new HdFtpLIST(listPageSize > 0 ? listPageSize : Integer.MAX_VALUE));
+		commands.addCommand("MLST", new HdFtpMLST());
+		commands.addCommand("OPTS", new HdFtpOPTS());
+		commands.addCommand("FEAT", new HdFtpFEAT());
+		commands.addCommand("HASH", new HdFtpHASH());
+		commands.addCommand("XMD5", new HdFtpHASH());
+		commands.addCommand("XCRC", new HdFtpHASH());
+		HdFtpSITE site = new HdFtpSITE();
+		site.addCommand("COPY", new HdFtpSITE_COPY(), "copy a file on the server, SITE COPY <src> <dst>, quote paths with spaces by \".");
+		site.addCommand("TRASH", new HdFtpSITE_TRASH(), "show the background deletion of directories.");
+		commands.addCommand("SITE", site);
+		ftpserver.setCommandFactory(commands.createCommandFactory());
 		
 		ListenerFactory listener = new ListenerFactory();
 		DataConnectionConfigurationFactory dataFactory = new DataConnectionConfigurationFactory();
@@ -202,6 +497,41 @@ public class HdFtpServer {
 		return ftpserver.createServer();
 	}
 
+	/**
+	 * Create the password encryptor of the users
+	 * @param name md5, salted, pbkdf2, clear or the class name of a PasswordEncryptor with a default constructor
+	 * @param iterations iterations of new pbkdf2 hashes
+	 * @throws Exception
+	 */
+	public static PasswordEncryptor createPasswordEncryptor(String name, int iterations) throws Exception {
+		if (name == null || "md5".equalsIgnoreCase(name)) {
+			return new Md5PasswordEncryptor();
+		} else if ("salted".equalsIgnoreCase(name)) {
+			return new SaltedPasswordEncryptor();
+		} else if ("pbkdf2".equalsIgnoreCase(name)) {
+			return new HdFtpPbkdf2PasswordEncryptor(iterations);
+		} else if ("clear".equalsIgnoreCase(name)) {
+			return new ClearTextPasswordEncryptor();
+		}
+		return Class.forName(name).asSubclass(PasswordEncryptor.class).getDeclaredConstructor().newInstance();
+	}
+
+    /**
+     * Stop the server, the users watcher and close the HDFS connections.
+     */
+    public static void stop(FtpServer engine) {
+        engine.stop();
+        if (usersWatcher != null) {
+        	usersWatcher.close();
+        	usersWatcher = null;
+        }
+        if (fileSystem != null) {
+        	fileSystem.close();
+        	fileSystem = null;
+        }
+        log.info("HdFtp server stopped.");
+    }
+
     /**
      * Add shutdown hook.
      */
@@ -210,8 +540,8 @@ public class HdFtpServer {
         // create shutdown hook
         Runnable shutdownHook = new Runnable() {
             public void run() {
-                engine.stop();
-                log.info("HdFtp server stopped.");
+                stop(engine);
+                LogManager.shutdown();		// flush the async appenders
             }
         };
 
@@ -0,0 +1,57 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+
+import java.io.IOException;
+
+/**
+ * Ftplet which disposes the file system view a session drops without disposing it.
+ * ftpserver disposes the view when the session is closed, but REIN and PASS reinitialize the
+ * session, and a successful PASS replaces its view, so the pooled dfs object of the user
+ * would never be released.
+ */
+public class HdFtpSessionFtplet extends DefaultFtplet {
+
+	private static final String ATTRIBUTE_VIEW = "org.apache.hadoop.hdftp.view";
+
+	@Override
+	public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+		String command = request.getCommand();
+		if ("PASS".equals(command) || "REIN".equals(command)) {
+			FileSystemView view = session.getFileSystemView();
+			if (view != null) {
+				session.setAttribute(ATTRIBUTE_VIEW, view);
+			}
+		}
+		return super.beforeCommand(session, request);
+	}
+
+	@Override
+	public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply) throws FtpException, IOException {
+		disposeDropped(session);
+		return super.afterCommand(session, request, reply);
+	}
+
+	@Override
+	public FtpletResult onDisconnect(FtpSession session) throws FtpException, IOException {
+		// a view dropped by a command which failed before afterCommand, the current view is disposed by ftpserver
+		disposeDropped(session);
+		return super.onDisconnect(session);
+	}
+
+	private void disposeDropped(FtpSession session) {
+		FileSystemView view = (FileSystemView) session.getAttribute(ATTRIBUTE_VIEW);
+		if (view != null) {
+			session.removeAttribute(ATTRIBUTE_VIEW);
+			if (view != session.getFileSystemView()) {
+				view.dispose();
+			}
+		}
+	}
+}
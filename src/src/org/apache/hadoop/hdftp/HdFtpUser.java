@@ -23,6 +23,8 @@ public class HdFtpUser implements User {
 	private int maxIdleTimeSec = 0;
 	
 	private short fileReplication = 0;
+	
+	private int bufferSize = 0;
 
 	private String group = "ftpgroup";
 
@@ -48,6 +50,7 @@ public class HdFtpUser implements User {
 		isEnabled = usr.getEnabled();
 		group = usr.getGroup();
 		fileReplication = usr.getFileReplication();
+		bufferSize = usr.getBufferSize();
 	}
 	
 	/**
@@ -203,4 +206,18 @@ public class HdFtpUser implements User {
 	public void setFileReplication(short fileReplication) {
 		this.fileReplication = fileReplication;
 	}
+
+	/**
+	 * Get the I/O buffer size of the user's transfers in bytes, 0 is the server default.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Set the I/O buffer size of the user's transfers in bytes, 0 is the server default.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
 }
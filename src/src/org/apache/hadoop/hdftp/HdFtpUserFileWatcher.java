@@ -0,0 +1,119 @@
+package org.apache.hadoop.hdftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the user data file and reloads the users of the user manager when it's changed.
+ * The reload waits until the directory of the file is quiet for a delay, because editors and
+ * the user manager itself write the file in several steps.
+ */
+public class HdFtpUserFileWatcher {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdFtpUserFileWatcher.class);
+
+	private HdFtpPropertiesUserManager userManager;
+
+	private File file;
+
+	private long delay;
+
+	private WatchService watchService = null;
+
+	private Thread watcher = null;
+
+	/**
+	 * Constructor - set the user manager and its file
+	 *
+	 * @param userManager the user manager which is reloaded
+	 * @param file the user data file
+	 * @param delay milliseconds without changes before the file is reloaded
+	 */
+	public HdFtpUserFileWatcher(HdFtpPropertiesUserManager userManager, File file, long delay) {
+		this.userManager = userManager;
+		this.file = file.getAbsoluteFile();
+		this.delay = delay;
+	}
+
+	/**
+	 * Start watching the directory of the file in a background thread
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		if (watcher != null) {
+			return;
+		}
+		Path dir = file.getParentFile().toPath();
+		watchService = dir.getFileSystem().newWatchService();
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watcher = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "hdftp-users-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+		log.info("start(): watching {} .", file);
+	}
+
+	/**
+	 * Stop watching
+	 */
+	public synchronized void close() {
+		if (watcher != null) {
+			watcher.interrupt();
+			watcher = null;
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				log.warn("Close watch service of {} error.", file, e);
+			}
+		}
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = isChanged(key);
+				key.reset();
+				if (!changed) {
+					continue;
+				}
+				// wait until the writes are finished
+				WatchKey next;
+				while ((next = watchService.poll(delay, TimeUnit.MILLISECONDS)) != null) {
+					next.pollEvents();
+					next.reset();
+				}
+				userManager.reload();
+			}
+		} catch (InterruptedException e) {
+			log.debug("watch(): stopped.");
+		} catch (ClosedWatchServiceException e) {
+			log.debug("watch(): stopped.");
+		}
+	}
+
+	private boolean isChanged(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					|| file.getName().equals(String.valueOf(event.context()))) {
+				changed = true;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,293 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes directory trees in the background. A deleted directory is renamed into the trash directory
+ * at once, and a background thread deletes the trees in the trash in batches of files and directories
+ * with a pause after each batch, so a huge tree doesn't hold the NameNode lock for a long time.
+ * A subtree which fits in a batch is deleted by one recursive call, only the directories of larger
+ * subtrees are walked.
+ * Trees left in the trash by a restart are deleted when the deleter starts. A tree which can't be
+ * renamed into the trash, e.g. in an encryption zone or over a quota, is deleted at once by the caller.
+ */
+public class HdfsAsyncDeleter {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdfsAsyncDeleter.class);
+
+	private FileSystem hdfs;
+
+	private Path trashDir;
+
+	private int batchSize;
+
+	private long batchInterval;
+
+	private BlockingQueue<Path> pending = new LinkedBlockingQueue<Path>();
+
+	private Thread drainer = null;
+
+	private volatile Path current = null;
+
+	private AtomicLong counter = new AtomicLong();
+
+	private AtomicLong moved = new AtomicLong();		// trees moved into the trash
+
+	private AtomicLong drained = new AtomicLong();		// trees deleted from the trash
+
+	private AtomicLong deleted = new AtomicLong();		// files and directories deleted from the trash
+
+	private AtomicLong failures = new AtomicLong();
+
+	private int batchCount = 0;
+
+	/**
+	 * Constructor - set the trash directory and the throttling
+	 *
+	 * @param hdfs FileSystem of the HDFS superuser
+	 * @param trashDir directory the deleted trees are moved to
+	 * @param batchSize number of files and directories deleted in a batch
+	 * @param batchInterval milliseconds to pause after a batch
+	 */
+	public HdfsAsyncDeleter(FileSystem hdfs, Path trashDir, int batchSize, long batchInterval) {
+		this.hdfs = hdfs;
+		this.trashDir = trashDir;
+		this.batchSize = batchSize > 0 ? batchSize : 1;
+		this.batchInterval = batchInterval;
+	}
+
+	/**
+	 * Create the trash directory and start the background thread, trees left in the trash are queued
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		if (drainer != null) {
+			return;
+		}
+		if (!hdfs.exists(trashDir)) {
+			hdfs.mkdirs(trashDir, new FsPermission((short) 0700));
+		}
+		FileStatus[] left = hdfs.listStatus(trashDir);
+		for (int i = 0; i < left.length; i++) {
+			pending.add(left[i].getPath());
+		}
+		if (left.length > 0) {
+			log.info("start(): {} trees left in the trash {} .", left.length, trashDir);
+		}
+		drainer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "hdftp-trash");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Stop the background thread, the trees left in the trash are deleted after the next start
+	 */
+	public synchronized void close() {
+		if (drainer != null) {
+			drainer.interrupt();
+			drainer = null;
+		}
+	}
+
+	/**
+	 * Move a tree into the trash to be deleted in the background
+	 *
+	 * @param path the tree
+	 * @return false if the tree could not be moved
+	 * @throws IOException if the rename fails, e.g. the tree is in an encryption zone or
+	 * the trash would exceed a quota
+	 */
+	public boolean delete(Path path) throws IOException {
+		Path target = new Path(trashDir, System.currentTimeMillis() + "-" + counter.incrementAndGet() + "-" + path.getName());
+		HdFtpMetrics.rpc("rename");
+		if (!hdfs.rename(path, target)) {
+			return false;
+		}
+		log.debug("delete(): {} moved to {} .", path, target);
+		moved.incrementAndGet();
+		pending.add(target);
+		return true;
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				Path tree = pending.take();
+				current = tree;
+				try {
+					deleteTree(tree);
+					drained.incrementAndGet();
+				} catch (IOException e) {
+					retry(tree, e);
+				} catch (RuntimeException e) {
+					retry(tree, e);
+				} finally {
+					current = null;
+				}
+			}
+		} catch (InterruptedException e) {
+			log.debug("drain(): stopped.");
+		}
+	}
+
+	/**
+	 * Count a failed deletion and queue the tree again after a pause
+	 */
+	private void retry(Path tree, Exception e) throws InterruptedException {
+		failures.incrementAndGet();
+		log.error("Delete {} from the trash error, retry later.", tree, e);
+		Thread.sleep(Math.max(batchInterval, 1000) * 10);
+		pending.add(tree);
+	}
+
+	/**
+	 * Delete a tree, a subtree of at most batchSize files and directories is deleted by one recursive call
+	 */
+	private void deleteTree(Path tree) throws IOException, InterruptedException {
+		FileStatus status;
+		try {
+			status = hdfs.getFileStatus(tree);
+		} catch (FileNotFoundException e) {
+			return;
+		}
+		if (!status.isDirectory()) {
+			deletePath(tree, false, 1);
+			return;
+		}
+		long size = walk(tree);
+		if (size > 0) {
+			deletePath(tree, true, size);
+		}
+	}
+
+	/**
+	 * Walk a directory bottom up. The subdirectories and files are collected while they fit in a batch,
+	 * and deleted, each subtree by one call, when they don't. A directory which has been emptied so is
+	 * deleted too
+	 *
+	 * @return number of files and directories of the directory if they fit in a batch and nothing was deleted,
+	 * or 0 if the directory has been deleted
+	 */
+	private long walk(Path dir) throws IOException, InterruptedException {
+		List<FileStatus> children = new ArrayList<FileStatus>();
+		List<Long> sizes = new ArrayList<Long>();
+		long total = 1;
+		boolean large = false;
+		RemoteIterator<FileStatus> it = hdfs.listStatusIterator(dir);
+		while (it.hasNext()) {
+			FileStatus child = it.next();
+			long size = child.isDirectory() ? walk(child.getPath()) : 1;
+			if (size == 0) {
+				large = true;
+				continue;
+			}
+			children.add(child);
+			sizes.add(size);
+			total += size;
+			if (total > batchSize) {
+				large = true;
+				deleteChildren(children, sizes);
+				total = 1;
+			}
+		}
+		if (!large) {
+			return total;
+		}
+		deleteChildren(children, sizes);
+		deletePath(dir, false, 1);
+		return 0;
+	}
+
+	private void deleteChildren(List<FileStatus> children, List<Long> sizes) throws IOException, InterruptedException {
+		for (int i = 0; i < children.size(); i++) {
+			deletePath(children.get(i).getPath(), children.get(i).isDirectory(), sizes.get(i));
+		}
+		children.clear();
+		sizes.clear();
+	}
+
+	/**
+	 * Delete a file or a subtree, and pause when a batch of files and directories has been deleted
+	 */
+	private void deletePath(Path path, boolean recursive, long size) throws IOException, InterruptedException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedException();
+		}
+		HdFtpMetrics.rpc("delete");
+		hdfs.delete(path, recursive);
+		deleted.addAndGet(size);
+		batchCount += size;
+		if (batchCount >= batchSize) {
+			batchCount = 0;
+			Thread.sleep(batchInterval);
+		}
+	}
+
+	/**
+	 * Get the trash directory
+	 */
+	public Path getTrashDir() {
+		return trashDir;
+	}
+
+	/**
+	 * Get number of trees waiting in the trash, the tree being deleted included
+	 */
+	public int getPendingCount() {
+		return pending.size() + (current == null ? 0 : 1);
+	}
+
+	/**
+	 * Get number of trees moved into the trash
+	 */
+	public long getMovedCount() {
+		return moved.get();
+	}
+
+	/**
+	 * Get number of trees deleted from the trash
+	 */
+	public long getDrainedCount() {
+		return drained.get();
+	}
+
+	/**
+	 * Get number of files and directories deleted from the trash
+	 */
+	public long getDeletedCount() {
+		return deleted.get();
+	}
+
+	/**
+	 * Get number of failed tree deletions
+	 */
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * Get the tree being deleted, null if the trash is empty
+	 */
+	public Path getCurrent() {
+		return current;
+	}
+}
@@ -0,0 +1,300 @@
+package org.apache.hadoop.hdftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-wide pool of transfer buffers in power of two size classes with a global memory budget,
+ * direct buffers of the read ahead and write behind threads and heap buffers of the buffered streams.
+ * Buffers are allocated on demand and reused by the following transfers, free buffers of another size class
+ * are dropped when the budget is needed. A transfer acquires all its buffers at once and waits while
+ * the budget is used up, so the transfers can't hold part of the budget and wait for each other.
+ * Waiting transfers are granted their buffers in arrival order, so a large request isn't starved by
+ * smaller ones, and give up after a max wait, so transfers held by idle clients can't block new ones forever.
+ */
+public class HdfsBufferPool {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdfsBufferPool.class);
+
+	private static final int MIN_CLASS_SIZE = 4096;
+
+	private static final int SCRATCH_SIZE = 65536;
+
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SCRATCH_SIZE];
+		}
+	};
+
+	private long capacity;		// max bytes of all buffers, 0 is no limit
+
+	private long maxWait;		// milliseconds, 0 is no limit
+
+	private long allocated = 0;	// bytes of allocated buffers, used or free
+
+	private long used = 0;		// bytes of buffers acquired by transfers
+
+	private long waitCount = 0;
+
+	private long waitNanos = 0;
+
+	private long timeoutCount = 0;
+
+	private Deque<Object> waiters = new ArrayDeque<Object>();	// tickets of the waiting transfers in arrival order
+
+	private Map<Integer, Deque<ByteBuffer>> freeBuffers = new TreeMap<Integer, Deque<ByteBuffer>>();
+
+	private Map<Integer, Deque<byte[]>> freeArrays = new TreeMap<Integer, Deque<byte[]>>();
+
+	/**
+	 * Constructor - set the global memory budget
+	 *
+	 * @param capacity max bytes of all buffers, 0 is no limit, the buffers are reused only
+	 * @param maxWait max milliseconds a transfer waits for its buffers, 0 is no limit
+	 */
+	public HdfsBufferPool(long capacity, long maxWait) {
+		this.capacity = capacity;
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Get the size class of a buffer size, the next power of two
+	 */
+	public static int classSize(int size) {
+		int classSize = MIN_CLASS_SIZE;
+		while (classSize < size && classSize < (1 << 30)) {
+			classSize <<= 1;
+		}
+		return classSize;
+	}
+
+	/**
+	 * Get a heap array of the current thread to copy between a direct buffer and a stream
+	 */
+	static byte[] getScratch() {
+		return scratch.get();
+	}
+
+	/**
+	 * Acquire buffers of a transfer, waits until the budget allows them
+	 *
+	 * @param size min size of a buffer, the buffers have the size of its size class
+	 * @param count number of buffers
+	 * @return cleared buffers, they have to be released by {@link #release(ByteBuffer[])}
+	 * @throws WaitTimeoutException if the buffers aren't free within the max wait
+	 * @throws IOException if the buffers exceed the budget or waiting is interrupted
+	 */
+	public synchronized ByteBuffer[] acquire(int size, int count) throws IOException {
+		int classSize = classSize(size);
+		waitFor((long) classSize * count);
+		ByteBuffer[] buffers = new ByteBuffer[count];
+		Deque<ByteBuffer> free = freeBuffers.get(classSize);
+		for (int i = 0; i < count; i++) {
+			ByteBuffer buf = (free == null) ? null : free.poll();
+			if (buf == null) {
+				reserve(classSize);
+				buf = ByteBuffer.allocateDirect(classSize);
+				allocated += classSize;
+			}
+			buf.clear();
+			buffers[i] = buf;
+		}
+		used += (long) classSize * count;
+		return buffers;
+	}
+
+	/**
+	 * Acquire a heap buffer of a transfer which reads or writes through a buffered stream,
+	 * waits until the budget allows it
+	 *
+	 * @param size min size of the buffer, the buffer has the size of its size class
+	 * @return the buffer, it has to be released by {@link #releaseArray(byte[])}
+	 * @throws WaitTimeoutException if the buffer isn't free within the max wait
+	 * @throws IOException if the buffer exceeds the budget or waiting is interrupted
+	 */
+	public synchronized byte[] acquireArray(int size) throws IOException {
+		int classSize = classSize(size);
+		waitFor(classSize);
+		Deque<byte[]> free = freeArrays.get(classSize);
+		byte[] array = (free == null) ? null : free.poll();
+		if (array == null) {
+			reserve(classSize);
+			array = new byte[classSize];
+			allocated += classSize;
+		}
+		used += classSize;
+		return array;
+	}
+
+	/**
+	 * Wait until the bytes fit into the budget and the transfers waiting before are served
+	 */
+	private void waitFor(long bytes) throws IOException {
+		if (capacity > 0 && bytes > capacity) {
+			throw new IOException("Transfer buffers of " + bytes + " bytes exceed the buffer pool capacity of " + capacity + " bytes.");
+		}
+		if (waiters.isEmpty() && fits(bytes)) {
+			return;
+		}
+		Object ticket = new Object();
+		waiters.add(ticket);
+		long start = System.nanoTime();
+		waitCount++;
+		if (log.isDebugEnabled()) {
+			log.debug("acquire(): waiting for {} bytes, {} .", bytes, this);
+		}
+		try {
+			long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWait);
+			while (waiters.peek() != ticket || !fits(bytes)) {
+				if (maxWait <= 0) {
+					wait();
+					continue;
+				}
+				long left = deadline - System.nanoTime();
+				if (left <= 0) {
+					timeoutCount++;
+					throw new WaitTimeoutException("No transfer buffers of " + bytes + " bytes free within " + maxWait + " ms.");
+				}
+				wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Waiting for transfer buffers interrupted.");
+		} finally {
+			waiters.remove(ticket);
+			// the next waiter may be first now
+			notifyAll();
+			waitNanos += System.nanoTime() - start;
+		}
+	}
+
+	private boolean fits(long bytes) {
+		return capacity <= 0 || capacity - used >= bytes;
+	}
+
+	/**
+	 * Release buffers acquired by {@link #acquire(int, int)}
+	 */
+	public synchronized void release(ByteBuffer[] buffers) {
+		for (int i = 0; i < buffers.length; i++) {
+			ByteBuffer buf = buffers[i];
+			Deque<ByteBuffer> free = freeBuffers.get(buf.capacity());
+			if (free == null) {
+				free = new ArrayDeque<ByteBuffer>();
+				freeBuffers.put(buf.capacity(), free);
+			}
+			free.push(buf);
+			used -= buf.capacity();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Release a buffer acquired by {@link #acquireArray(int)}
+	 */
+	public synchronized void releaseArray(byte[] array) {
+		Deque<byte[]> free = freeArrays.get(array.length);
+		if (free == null) {
+			free = new ArrayDeque<byte[]>();
+			freeArrays.put(array.length, free);
+		}
+		free.push(array);
+		used -= array.length;
+		notifyAll();
+	}
+
+	/**
+	 * Drop free buffers of other size classes until a new buffer fits into the budget,
+	 * the used bytes are within the budget so there are enough free bytes
+	 */
+	private void reserve(int classSize) {
+		if (capacity <= 0) {
+			return;
+		}
+		Iterator<Deque<ByteBuffer>> iter = freeBuffers.values().iterator();
+		while (allocated + classSize > capacity && iter.hasNext()) {
+			Deque<ByteBuffer> free = iter.next();
+			while (allocated + classSize > capacity && !free.isEmpty()) {
+				allocated -= free.pop().capacity();
+			}
+		}
+		Iterator<Deque<byte[]>> arrays = freeArrays.values().iterator();
+		while (allocated + classSize > capacity && arrays.hasNext()) {
+			Deque<byte[]> free = arrays.next();
+			while (allocated + classSize > capacity && !free.isEmpty()) {
+				allocated -= free.pop().length;
+			}
+		}
+	}
+
+	/**
+	 * Get max bytes of all buffers, 0 is no limit
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get bytes of allocated buffers, used or free
+	 */
+	public synchronized long getAllocated() {
+		return allocated;
+	}
+
+	/**
+	 * Get bytes of buffers used by transfers
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * Get number of transfers which had to wait for buffers
+	 */
+	public synchronized long getWaitCount() {
+		return waitCount;
+	}
+
+	/**
+	 * Get the milliseconds transfers waited for buffers
+	 */
+	public synchronized long getWaitTime() {
+		return waitNanos / 1000000;
+	}
+
+	/**
+	 * Get number of transfers which gave up waiting for buffers
+	 */
+	public synchronized long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	public String toString() {
+		return "HdfsBufferPool [capacity=" + capacity + ", allocated=" + getAllocated() + ", used=" + getUsed()
+				+ ", waits=" + getWaitCount() + ", waitTime=" + getWaitTime() + ", timeouts=" + getTimeoutCount() + "]";
+	}
+
+	/**
+	 * Thrown when a transfer gives up waiting for its buffers. It's a SocketException so the transfer commands
+	 * answer 426 and the client can try again later, instead of the permanent 551 of other I/O errors
+	 */
+	public static class WaitTimeoutException extends SocketException {
+
+		private static final long serialVersionUID = 1L;
+
+		public WaitTimeoutException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.hadoop.fs.FileStatus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide cache of file checksums. A checksum is keyed by the path, length and modification time
+ * of the file and the algorithm, so a changed file gets a new key and the old checksum is evicted
+ * as the least recently used entry.
+ */
+public class HdfsChecksumCache {
+
+	/**
+	 * Algorithm of the MD5-of-MD5-of-CRC checksum of HDFS, computed by the DataNodes from the block checksums
+	 */
+	public static final String HDFS_ALGORITHM = "HDFS";
+
+	private Map<String, String[]> checksums;
+
+	private int maxSize;
+
+	private AtomicLong hits = new AtomicLong();
+
+	private AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Constructor - set the cache size
+	 *
+	 * @param maxSize max number of cached checksums, 0 disables the cache
+	 */
+	public HdfsChecksumCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.checksums = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	private static String key(FileStatus status, String algorithm) {
+		return HdfsMetadataCache.key(status.getPath()) + '|' + status.getLen() + '|' + status.getModificationTime() + '|' + algorithm;
+	}
+
+	/**
+	 * Get the cached checksum of a file
+	 *
+	 * @param status status of the file
+	 * @param algorithm requested algorithm
+	 * @return algorithm name and hex checksum, null if it's not cached
+	 */
+	public synchronized String[] get(FileStatus status, String algorithm) {
+		if (maxSize <= 0) {
+			return null;
+		}
+		String[] checksum = checksums.get(key(status, algorithm));
+		if (checksum == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return checksum;
+	}
+
+	/**
+	 * Cache the checksum of a file
+	 *
+	 * @param status status of the file the checksum was computed of
+	 * @param algorithm requested algorithm
+	 * @param checksum algorithm name and hex checksum
+	 */
+	public synchronized void put(FileStatus status, String algorithm, String[] checksum) {
+		if (maxSize <= 0) {
+			return;
+		}
+		checksums.put(key(status, algorithm), checksum);
+	}
+
+	/**
+	 * Get number of checksums answered by the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of checksums which have to be computed
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public synchronized String toString() {
+		return "HdfsChecksumCache [size=" + checksums.size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+	}
+}
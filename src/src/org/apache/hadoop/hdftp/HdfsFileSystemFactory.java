@@ -4,16 +4,25 @@ import org.apache.ftpserver.ftplet.FileSystemFactory;
 import org.apache.ftpserver.ftplet.FileSystemView;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.ftplet.User;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implemented FileSystemFactory to use HdfsFileSystemView and store DFS connection
@@ -26,16 +35,48 @@ public class HdfsFileSystemFactory implements FileSystemFactory {
 	
 	private FileSystem hdfs;
 	
+	private UserGroupInformation ugi;
+	
+	private HdfsConfiguration conf;
+	
+	private HdfsFileSystemPool fileSystemPool = null;
+	
+	private ConcurrentHashMap<String, Long> verifiedHomes = new ConcurrentHashMap<String, Long>();
+	
+	private ConcurrentHashMap<String, Object> homeLocks = new ConcurrentHashMap<String, Object>();
+	
+	private long homeRevalidateInterval = 0;
+	
+	private int bufferSize = 0;
+	
+	private int readAheadDepth = 0;
+	
+	private int writeBehindDepth = 0;
+	
+	private ExecutorService transferExecutor = null;
+
+	private HdfsBufferPool bufferPool = new HdfsBufferPool(0, 0);
+
+	private HdfsTransferStats transferStats = new HdfsTransferStats();
+
+	private int copyParallelism = 1;
+
+	private HdfsAsyncDeleter asyncDeleter = null;
+	
+	private HdfsMetadataCache metadataCache = new HdfsMetadataCache(0, 0, 0, 0);
+
+	private HdfsChecksumCache checksumCache = new HdfsChecksumCache(0);
+	
 	/**
 	 * Constructor - set the hadoop admin and hdfs config file.
 	 * @throws InterruptedException 
 	 */
 	public HdfsFileSystemFactory(final String hdfsSuperuser, final String hdfsResource)
 			throws IOException, InterruptedException{
-		UserGroupInformation ugi = UserGroupInformation.createRemoteUser(hdfsSuperuser);
+		ugi = UserGroupInformation.createRemoteUser(hdfsSuperuser);
 		ugi.doAs(new PrivilegedExceptionAction<Void>() {
 			public Void run() throws Exception {
-				HdfsConfiguration conf = new HdfsConfiguration();
+				conf = new HdfsConfiguration();
 				Path resPath = new Path(hdfsResource);
 				conf.addResource(resPath);
 				hdfs = DistributedFileSystem.get(conf);
@@ -59,31 +100,323 @@ public class HdfsFileSystemFactory implements FileSystemFactory {
 	public void setCreateHome(boolean createHome) {
     	this.createHome = createHome;
 	}
+
+    /**
+     * Get the interval after that a verified home directory is checked again
+     * @return milliseconds, 0 is never
+     */
+	public long getHomeRevalidateInterval() {
+		return homeRevalidateInterval;
+	}
+
+    /**
+     * Set the interval after that a verified home directory is checked again
+     * @param homeRevalidateInterval milliseconds, 0 is never
+     */
+	public void setHomeRevalidateInterval(long homeRevalidateInterval) {
+		this.homeRevalidateInterval = homeRevalidateInterval;
+	}
+
+    /**
+     * Get the I/O buffer size of RETR and STOR streams
+     * @return bytes, io.file.buffer.size of hdfs config if it is not set
+     */
+	public int getBufferSize() {
+		if (bufferSize > 0) {
+			return bufferSize;
+		}
+		return conf.getInt(CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_KEY,
+				CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_DEFAULT);
+	}
+
+    /**
+     * Get the number of entries a getListing RPC returns, dfs.ls.limit of hdfs config
+     * @return entries, 0 if the file system lists a directory by one call
+     */
+	public int getListingPageSize() {
+		if (!(hdfs instanceof DistributedFileSystem)) {
+			return 0;
+		}
+		return conf.getInt(DFSConfigKeys.DFS_LIST_LIMIT, DFSConfigKeys.DFS_LIST_LIMIT_DEFAULT);
+	}
+
+    /**
+     * Set the I/O buffer size of RETR and STOR streams, users can override it
+     * @param bufferSize bytes, 0 is io.file.buffer.size of hdfs config
+     */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+    /**
+     * Get the number of buffers read ahead by downloads
+     * @return number of buffers, 0 is disabled
+     */
+	public int getReadAheadDepth() {
+		return readAheadDepth;
+	}
+
+    /**
+     * Set the number of buffers of the I/O buffer size read ahead by downloads in a background thread
+     * @param readAheadDepth number of buffers, 0 is disabled
+     */
+	public void setReadAheadDepth(int readAheadDepth) {
+		this.readAheadDepth = readAheadDepth;
+	}
+
+    /**
+     * Get the number of buffers queued by uploads for the background writer
+     * @return number of buffers, 0 is disabled
+     */
+	public int getWriteBehindDepth() {
+		return writeBehindDepth;
+	}
+
+    /**
+     * Set the number of buffers of the I/O buffer size queued by uploads for a background writer
+     * @param writeBehindDepth number of buffers, 0 is disabled
+     */
+	public void setWriteBehindDepth(int writeBehindDepth) {
+		this.writeBehindDepth = writeBehindDepth;
+	}
+
+    /**
+     * Get the pool of the transfer buffers
+     * @return buffer pool, null if every transfer allocates its own buffers
+     */
+	public HdfsBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+    /**
+     * Set the pool of the transfer buffers shared by all transfers, by default the buffers are reused
+     * without a memory budget
+     * @param bufferPool buffer pool, null if every transfer allocates its own buffers
+     */
+	public void setBufferPool(HdfsBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+    /**
+     * Get the stall times of the read ahead and write behind transfers
+     */
+	public HdfsTransferStats getTransferStats() {
+		return transferStats;
+	}
+
+    /**
+     * Get the max number of ranges of a server-side copy copied in parallel
+     * @return number of ranges
+     */
+	public int getCopyParallelism() {
+		return copyParallelism;
+	}
+
+    /**
+     * Set the max number of ranges of whole blocks of a server-side copy copied in parallel
+     * @param copyParallelism number of ranges, 1 copies by a single stream
+     */
+	public void setCopyParallelism(int copyParallelism) {
+		this.copyParallelism = copyParallelism;
+	}
+
+    /**
+     * Get the pool of the proxy users' dfs objects
+     * @return the pool, null if the files are created by the superuser
+     */
+	public HdfsFileSystemPool getFileSystemPool() {
+		return fileSystemPool;
+	}
+
+    /**
+     * Get the deleter which deletes directory trees in the background
+     * @return the deleter, null if the trees are deleted at once
+     */
+	public HdfsAsyncDeleter getAsyncDeleter() {
+		return asyncDeleter;
+	}
+
+    /**
+     * Delete directory trees in the background, they are moved into a trash directory and deleted in throttled batches
+     * @param trashDir HDFS directory the deleted trees are moved to
+     * @param batchSize number of files and directories deleted in a batch
+     * @param batchInterval milliseconds to pause after a batch
+     * @throws IOException if the trash directory can't be created
+     */
+	public void setAsyncDelete(String trashDir, int batchSize, long batchInterval) throws IOException {
+		if (asyncDeleter != null) {
+			asyncDeleter.close();
+		}
+		asyncDeleter = new HdfsAsyncDeleter(hdfs, new Path(trashDir), batchSize, batchInterval);
+		asyncDeleter.start();
+	}
+
+	/**
+	 * Get the executor of the background readers and writers of transfers
+	 */
+	synchronized ExecutorService getTransferExecutor() {
+		if (transferExecutor == null) {
+			transferExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "hdftp-transfer-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return transferExecutor;
+	}
+
+    /**
+     * Get the dfs object of the HDFS superuser
+     * @return the dfs object
+     */
+	public FileSystem getFileSystem() {
+		return hdfs;
+	}
+
+    /**
+     * Create files as the FTP users through a pool of proxy user dfs objects, so they don't need
+     * a setOwner after they are created. The NameNode has to allow the HDFS superuser to impersonate the users.
+     * @param poolSize max number of pooled dfs objects, users get the superuser dfs object when the pool is full
+     * @param idleTimeout milliseconds after that an unused dfs object is closed
+     */
+	public void setProxyUsers(int poolSize, long idleTimeout) {
+		if (fileSystemPool != null) {
+			fileSystemPool.close();
+		}
+		fileSystemPool = new HdfsFileSystemPool(ugi, conf, poolSize, idleTimeout);
+	}
+
+    /**
+     * Get the metadata cache shared by all file system views
+     * @return the metadata cache
+     */
+	public HdfsMetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+    /**
+     * Set the metadata cache shared by all file system views
+     * @param metadataCache the metadata cache, a cache with ttl 0 is disabled
+     */
+	public void setMetadataCache(HdfsMetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+    /**
+     * Get the checksum cache shared by all file system views
+     * @return the checksum cache
+     */
+	public HdfsChecksumCache getChecksumCache() {
+		return checksumCache;
+	}
+
+    /**
+     * Set the checksum cache shared by all file system views
+     * @param checksumCache the checksum cache, a cache with size 0 is disabled
+     */
+	public void setChecksumCache(HdfsChecksumCache checksumCache) {
+		this.checksumCache = checksumCache;
+	}
     
 	public FileSystemView createFileSystemView(User user) throws FtpException {
-		synchronized (user) {
+		try {
+            // create home if does not exist
+            if (createHome) {
+            	checkHome(user);
+            }
+            FileSystem userFs = null;
+            if (fileSystemPool != null) {
+            	userFs = fileSystemPool.borrow(user.getName());
+            }
+            return new HdfsFileSystemView(this, userFs != null ? userFs : hdfs, (HdFtpUser) user);
+		} catch (IOException e) {
+			log.error("Create user \"{}\" FileSystemView error.", user.getName(), e);
+			throw new FtpException("Create user FileSystemView error.");
+		}
+	}
+
+	/**
+	 * Check the home directory of the user and create it if it does not exist.
+	 * A verified home directory is not checked again until the revalidate interval has passed,
+	 * concurrent logins with the same home directory check it once.
+	 */
+	private void checkHome(User user) throws IOException, FtpException {
+		String homeDirStr = user.getHomeDirectory();
+		if (isHomeVerified(homeDirStr)) {
+			return;
+		}
+
+		Object lock = new Object();
+		Object existing = homeLocks.putIfAbsent(homeDirStr, lock);
+		if (existing != null) {
+			lock = existing;
+		}
+		synchronized (lock) {
+			if (isHomeVerified(homeDirStr)) {
+				return;
+			}
+			log.debug("checkHome(): user: {}, home: {} .", user.getName(), homeDirStr);
+			Path path = new Path(homeDirStr);
+			FileStatus status = null;
 			try {
-	            // create home if does not exist
-	            if (createHome) {
-	                String homeDirStr = user.getHomeDirectory();
-	                Path path = new Path(homeDirStr);
-	                if (!hdfs.exists(path)) {
-	                	if (!hdfs.mkdirs(path)) {
-	                		log.warn("Cannot create user home :: " + homeDirStr);
-	                		throw new FtpException("Cannot create user home :: " + homeDirStr);
-	                	}
-	                	hdfs.setOwner(path, user.getName(), ((HdFtpUser)user).getGroup());
-	                }
-	                if (hdfs.isFile(path)) {
-	                    log.warn("Not a directory :: " + homeDirStr);
-	                    throw new FtpException("Not a directory :: " + homeDirStr);
-	                }
-	            }
-	            return new HdfsFileSystemView(hdfs, (HdFtpUser) user);
-			} catch (IOException e) {
-				log.error("Create user \"{}\" FileSystemView error.", user.getName(), e);
-				throw new FtpException("Create user FileSystemView error.");
+				HdFtpMetrics.rpc("getFileStatus");
+				status = hdfs.getFileStatus(path);
+			} catch (FileNotFoundException e) {
+				HdFtpMetrics.rpc("mkdirs");
+				if (!hdfs.mkdirs(path)) {
+					log.warn("Cannot create user home :: {}", homeDirStr);
+					throw new FtpException("Cannot create user home :: " + homeDirStr);
+				}
+				HdFtpMetrics.rpc("setOwner");
+				hdfs.setOwner(path, user.getName(), ((HdFtpUser)user).getGroup());
+				metadataCache.invalidate(path, false);
 			}
+			if (status != null && status.isFile()) {
+				log.warn("Not a directory :: {}", homeDirStr);
+				throw new FtpException("Not a directory :: " + homeDirStr);
+			}
+			verifiedHomes.put(homeDirStr, System.currentTimeMillis());
+		}
+	}
+
+	private boolean isHomeVerified(String homeDirStr) {
+		Long verified = verifiedHomes.get(homeDirStr);
+		if (verified == null) {
+			return false;
+		}
+		return homeRevalidateInterval <= 0 || System.currentTimeMillis() - verified < homeRevalidateInterval;
+	}
+
+	/**
+	 * Release the dfs object of a user when the file system view is disposed
+	 */
+	void releaseUserFileSystem(User user, FileSystem userFs) {
+		if (fileSystemPool != null && userFs != hdfs) {
+			fileSystemPool.release(user.getName());
+		}
+	}
+
+	/**
+	 * Close the pooled dfs objects of the users and stop the background readers and writers
+	 */
+	public void close() {
+		if (fileSystemPool != null) {
+			fileSystemPool.close();
+		}
+		if (asyncDeleter != null) {
+			asyncDeleter.close();
+		}
+		synchronized (this) {
+			if (transferExecutor != null) {
+				transferExecutor.shutdownNow();
+			}
+		}
+		if (bufferPool != null) {
+			log.info("close(): {} .", bufferPool);
 		}
 	}
 }
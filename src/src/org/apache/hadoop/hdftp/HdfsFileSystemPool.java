@@ -0,0 +1,230 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Bounded pool of FileSystem instances of proxy users impersonated by the HDFS superuser,
+ * so files are created with the right owner. A FileSystem is shared by all sessions of a user
+ * and closed when it has been idle for the idle timeout. A FileSystem is created outside of the
+ * pool lock, so a slow NameNode connection of one user doesn't block the logins of the others.
+ * The NameNode has to allow the superuser to impersonate the users (hadoop.proxyuser.*).
+ */
+public class HdfsFileSystemPool {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdfsFileSystemPool.class);
+
+	private UserGroupInformation superUgi;
+
+	private Configuration conf;
+
+	private int maxSize;
+
+	private long idleTimeout;
+
+	private Map<String, PooledFileSystem> pool = new HashMap<String, PooledFileSystem>();
+
+	private boolean closed = false;
+
+	private static class PooledFileSystem {
+		final FutureTask<FileSystem> fs;
+		int refs = 0;
+		long lastUsed = System.currentTimeMillis();
+
+		PooledFileSystem(FutureTask<FileSystem> fs) {
+			this.fs = fs;
+		}
+	}
+
+	/**
+	 * Constructor - set the superuser, hdfs config and pool limits
+	 *
+	 * @param superUgi the HDFS superuser which impersonates the users
+	 * @param conf hdfs config
+	 * @param maxSize max number of pooled FileSystem instances
+	 * @param idleTimeout milliseconds after that an unused FileSystem is closed
+	 */
+	public HdfsFileSystemPool(UserGroupInformation superUgi, Configuration conf, int maxSize, long idleTimeout) {
+		this.superUgi = superUgi;
+		this.conf = conf;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Borrow the FileSystem of a user, it has to be released by {@link #release(String)}
+	 *
+	 * @param userName name of the user
+	 * @return FileSystem of the user, null if the pool is full
+	 * @throws IOException
+	 */
+	public FileSystem borrow(final String userName) throws IOException {
+		PooledFileSystem pooled;
+		boolean create = false;
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("FileSystem pool is closed.");
+			}
+			pooled = pool.get(userName);
+			if (pooled == null) {
+				evictIdle(false);
+				if (pool.size() >= maxSize) {
+					log.warn("FileSystem pool is full, size: {} .", pool.size());
+					return null;
+				}
+				pooled = new PooledFileSystem(new FutureTask<FileSystem>(new Callable<FileSystem>() {
+					public FileSystem call() throws Exception {
+						return newFileSystem(userName);
+					}
+				}));
+				pool.put(userName, pooled);
+				create = true;
+			}
+			pooled.refs++;
+			pooled.lastUsed = System.currentTimeMillis();
+		}
+		if (create) {
+			// the other sessions of the user wait for it below
+			pooled.fs.run();
+		}
+		FileSystem fs;
+		try {
+			fs = pooled.fs.get();
+		} catch (InterruptedException e) {
+			release(userName);
+			throw new InterruptedIOException("Create FileSystem of user \"" + userName + "\" interrupted.");
+		} catch (ExecutionException e) {
+			discard(userName, pooled);
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause
+					: new IOException("Create FileSystem of user \"" + userName + "\" error.", cause);
+		}
+		if (create) {
+			synchronized (this) {
+				if (pool.get(userName) != pooled) {
+					// closed while it was created
+					closeFileSystem(userName, fs);
+					throw new IOException("FileSystem pool is closed.");
+				}
+				log.debug("borrow(): created FileSystem of user: {}, pool size: {} .", userName, pool.size());
+			}
+		}
+		return fs;
+	}
+
+	/**
+	 * Release the FileSystem of a user borrowed by {@link #borrow(String)}
+	 *
+	 * @param userName name of the user
+	 */
+	public synchronized void release(String userName) {
+		PooledFileSystem pooled = pool.get(userName);
+		if (pooled != null && pooled.refs > 0) {
+			pooled.refs--;
+			pooled.lastUsed = System.currentTimeMillis();
+		}
+		evictIdle(false);
+	}
+
+	/**
+	 * Remove a FileSystem which could not be created, the next login of the user tries again
+	 */
+	private synchronized void discard(String userName, PooledFileSystem pooled) {
+		if (pool.get(userName) == pooled) {
+			pool.remove(userName);
+		}
+	}
+
+	/**
+	 * Close the FileSystem instances which are not used and have been idle for the idle timeout
+	 */
+	public synchronized void evictIdle() {
+		evictIdle(false);
+	}
+
+	/**
+	 * Close all FileSystem instances, used or not
+	 */
+	public synchronized void close() {
+		closed = true;
+		evictIdle(true);
+	}
+
+	/**
+	 * Get number of pooled FileSystem instances
+	 */
+	public synchronized int size() {
+		return pool.size();
+	}
+
+	/**
+	 * Get number of FileSystem references borrowed and not released yet
+	 */
+	public synchronized int getBorrowedCount() {
+		int borrowed = 0;
+		for (PooledFileSystem pooled : pool.values()) {
+			borrowed += pooled.refs;
+		}
+		return borrowed;
+	}
+
+	private void evictIdle(boolean all) {
+		long now = System.currentTimeMillis();
+		Iterator<Entry<String, PooledFileSystem>> iter = pool.entrySet().iterator();
+		while (iter.hasNext()) {
+			Entry<String, PooledFileSystem> entry = iter.next();
+			PooledFileSystem pooled = entry.getValue();
+			if (all || (pooled.refs == 0 && now - pooled.lastUsed >= idleTimeout)) {
+				iter.remove();
+				// one which is still created is closed by its creator
+				if (pooled.fs.isDone()) {
+					try {
+						closeFileSystem(entry.getKey(), pooled.fs.get());
+					} catch (Exception e) {
+						// it could not be created
+					}
+				}
+			}
+		}
+	}
+
+	private void closeFileSystem(String userName, FileSystem fs) {
+		try {
+			fs.close();
+		} catch (IOException e) {
+			log.error("Close FileSystem of user \"{}\" error.", userName, e);
+		}
+		log.debug("closeFileSystem(): closed FileSystem of user: {} .", userName);
+	}
+
+	/**
+	 * Create a new FileSystem instance of a proxy user, it's not shared by FileSystem's cache
+	 * so it can be closed when it is evicted
+	 */
+	private FileSystem newFileSystem(String userName) throws IOException {
+		UserGroupInformation ugi = UserGroupInformation.createProxyUser(userName, superUgi);
+		try {
+			return ugi.doAs(new PrivilegedExceptionAction<FileSystem>() {
+				public FileSystem run() throws Exception {
+					return FileSystem.newInstance(conf);
+				}
+			});
+		} catch (InterruptedException e) {
+			throw new IOException("Create FileSystem of user \"" + userName + "\" interrupted.", e);
+		}
+	}
+}
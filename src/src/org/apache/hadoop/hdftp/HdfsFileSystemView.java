@@ -5,6 +5,8 @@ import org.apache.ftpserver.ftplet.FtpFile;
 import org.apache.ftpserver.ftplet.FileSystemView;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.hadoop.fs.FileSystem;
+
+import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,12 +23,16 @@ public class HdfsFileSystemView implements FileSystemView {
 
 	private HdFtpUser user;
 	
+	private HdfsFileSystemFactory factory;
+	
 	private FileSystem hdfs;
 	
+	private FileSystem userFs;
+	
 	/**
-	 * Constructor - set the user and dfs object.
+	 * Constructor - set the user, the factory which holds the dfs object and the dfs object of the user.
 	 */
-	protected HdfsFileSystemView(FileSystem hdfs, HdFtpUser user) throws FtpException {
+	protected HdfsFileSystemView(HdfsFileSystemFactory factory, FileSystem userFs, HdFtpUser user) throws FtpException {
 		if (user == null) {
 			throw new IllegalArgumentException("User can not be null.");
 		}
@@ -34,16 +40,119 @@ public class HdfsFileSystemView implements FileSystemView {
 			throw new IllegalArgumentException("User home directory can not be null.");
 		}
 		
-		this.hdfs = hdfs;
+		this.factory = factory;
+		this.hdfs = factory.getFileSystem();
+		this.userFs = userFs;
 		this.user = user;
 	}
 
+	/**
+	 * Get the user of the view.
+	 */
+	HdFtpUser getUser() {
+		return user;
+	}
+
+	/**
+	 * Get the dfs object of the HDFS superuser.
+	 */
+	FileSystem getHdfs() {
+		return hdfs;
+	}
+
+	/**
+	 * Get the number of entries a getListing RPC returns, 0 if a directory is listed by one call.
+	 */
+	int getListingPageSize() {
+		return factory.getListingPageSize();
+	}
+
+	/**
+	 * Get the dfs object which creates the files of the user.
+	 */
+	FileSystem getUserFileSystem() {
+		return userFs;
+	}
+
+	/**
+	 * Get the I/O buffer size of the user's transfers, the user's setting or the server default.
+	 */
+	int getBufferSize() {
+		if (user.getBufferSize() > 0) {
+			return user.getBufferSize();
+		}
+		return factory.getBufferSize();
+	}
+
+	/**
+	 * Get the number of buffers read ahead by downloads, 0 is disabled.
+	 */
+	int getReadAheadDepth() {
+		return factory.getReadAheadDepth();
+	}
+
+	/**
+	 * Get the number of buffers queued by uploads for the background writer, 0 is disabled.
+	 */
+	int getWriteBehindDepth() {
+		return factory.getWriteBehindDepth();
+	}
+
+	/**
+	 * Get the pool of the transfer buffers, null if the buffers are not pooled.
+	 */
+	HdfsBufferPool getBufferPool() {
+		return factory.getBufferPool();
+	}
+
+	/**
+	 * Get the stall times of the transfers of all views.
+	 */
+	HdfsTransferStats getTransferStats() {
+		return factory.getTransferStats();
+	}
+
+	/**
+	 * Get the max number of ranges of a server-side copy copied in parallel.
+	 */
+	int getCopyParallelism() {
+		return factory.getCopyParallelism();
+	}
+
+	/**
+	 * Get the deleter which deletes directory trees in the background, null if they are deleted at once.
+	 */
+	HdfsAsyncDeleter getAsyncDeleter() {
+		return factory.getAsyncDeleter();
+	}
+
+	/**
+	 * Get the executor of the background readers and writers of transfers.
+	 */
+	ExecutorService getTransferExecutor() {
+		return factory.getTransferExecutor();
+	}
+
+	/**
+	 * Get the metadata cache shared by all views.
+	 */
+	HdfsMetadataCache getMetadataCache() {
+		return factory.getMetadataCache();
+	}
+
+	/**
+	 * Get the checksum cache shared by all views.
+	 */
+	HdfsChecksumCache getChecksumCache() {
+		return factory.getChecksumCache();
+	}
+
 	/**
 	 * Get the user home directory. It would be the file system root for the
 	 * user.
 	 */
 	public FtpFile getHomeDirectory() throws FtpException {
-		return new HdfsFtpFile(hdfs, currDir, user);
+		return new HdfsFtpFile(this, currDir);
 	}
 
 	/**
@@ -66,7 +175,7 @@ public class HdfsFileSystemView implements FileSystemView {
 			path = ((currDir == "/") ? "" : currDir) + "/" + dir;
 		}
 		
-		HdfsFtpFile file = new HdfsFtpFile(hdfs, path, user);
+		HdfsFtpFile file = new HdfsFtpFile(this, path);
 		if (file.isDirectory() && file.isReadable()) {
 			currDir = path;
 			return true;
@@ -83,10 +192,14 @@ public class HdfsFileSystemView implements FileSystemView {
 	}
 
 	/**
-	 * Dispose file system view - does nothing.
+	 * Dispose file system view - release the dfs object of the user.
 	 */
 	public void dispose() {
+		if (this.hdfs != null) {
+			factory.releaseUserFileSystem(user, userFs);
+		}
 		this.hdfs = null;
+		this.userFs = null;
 	}
 
 	/**
@@ -105,7 +218,7 @@ public class HdfsFileSystemView implements FileSystemView {
 	    else
 	    	path = "/" + file;
 
-	    return new HdfsFtpFile(hdfs, path, user);
+	    return new HdfsFtpFile(this, path);
 	}
 	
 	/**
@@ -114,6 +227,6 @@ public class HdfsFileSystemView implements FileSystemView {
 	@Override
 	public FtpFile getWorkingDirectory() throws FtpException {
 		log.debug("getWorkingDirectory(): path: {} .", currDir);
-		return new HdfsFtpFile(hdfs, currDir, user);
+		return new HdfsFtpFile(this, currDir);
 	}
 }
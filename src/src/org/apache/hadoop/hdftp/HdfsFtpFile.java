@@ -2,16 +2,27 @@ package org.apache.hadoop.hdftp;
 
 import org.apache.ftpserver.ftplet.FtpFile;
 import org.apache.ftpserver.usermanager.impl.WriteRequest;
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.StringUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.zip.CRC32;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,25 +33,111 @@ public class HdfsFtpFile implements FtpFile {
 	
 	private static final transient Logger log = LoggerFactory.getLogger(HdfsFtpFile.class);
 
+	private static final transient HdFtpRateLimitedLog errors = new HdFtpRateLimitedLog(log);
+
+	private static final int SMALL_BUFFER_SIZE = 8192;
+
 	private Path path;
 	
 	private String abspath;		//the full path from the base directory of the FileSystemView.
 	
 	private HdFtpUser user;
 	
-	private FileSystem hdfs;
+	private HdfsFileSystemView view;
+	
+	private FileSystem hdfs;		//FileSystem of the HDFS superuser
+	
+	private FileSystem userFs;		//FileSystem which creates files, of the proxy user or of the superuser
+	
+	private HdfsMetadataCache cache;
+	
+	private FileStatus status;		//snapshot of the object status, null if the object doesn't exist.
+	
+	private boolean statusLoaded = false;
 	
 	/**
 	 * Constructs HdfsFileObject from path
 	 *
+	 * @param view file system view of the accessor of the object
 	 * @param path path to represent object
-	 * @param user accessor of the object
 	 */
-	public HdfsFtpFile(FileSystem hdfs, String path, HdFtpUser user) {
+	public HdfsFtpFile(HdfsFileSystemView view, String path) {
+		this.user = view.getUser();
 		this.path = new Path(user.getHomeDirectory() + path);
 		this.abspath = path;
-		this.user = user;
-		this.hdfs = hdfs;
+		this.view = view;
+		this.hdfs = view.getHdfs();
+		this.userFs = view.getUserFileSystem();
+		this.cache = view.getMetadataCache();
+	}
+
+	/**
+	 * Constructs HdfsFileObject from path with a known status, e.g. from a directory listing
+	 *
+	 * @param view file system view of the accessor of the object
+	 * @param path path to represent object
+	 * @param status status of the object
+	 */
+	public HdfsFtpFile(HdfsFileSystemView view, String path, FileStatus status) {
+		this(view, path);
+		this.status = status;
+		this.statusLoaded = true;
+	}
+
+	/**
+	 * Get status of the object. It is loaded from the metadata cache or HDFS once and kept until the object is changed,
+	 * a missing object is remembered by the negative cache
+	 *
+	 * @return status of the object, null if the object doesn't exist
+	 * @throws IOException
+	 */
+	private FileStatus getFileStatus() throws IOException {
+		if (!statusLoaded) {
+			status = cache.getStatus(path);
+			if (status == null && !cache.isMissing(path)) {
+				try {
+					HdFtpMetrics.rpc("getFileStatus");
+					status = hdfs.getFileStatus(path);
+					cache.putStatus(status);
+				} catch (FileNotFoundException e) {
+					status = null;
+					cache.putMissing(path);
+				}
+			}
+			statusLoaded = true;
+		}
+		return status;
+	}
+
+	/**
+	 * Get status of the object from HDFS, not from the metadata cache, for the decisions a stale length
+	 * or modification time would make wrong. The cache is updated with it
+	 *
+	 * @return status of the object, null if the object doesn't exist
+	 * @throws IOException
+	 */
+	private FileStatus getFreshFileStatus() throws IOException {
+		try {
+			HdFtpMetrics.rpc("getFileStatus");
+			status = hdfs.getFileStatus(path);
+			cache.putStatus(status);
+		} catch (FileNotFoundException e) {
+			status = null;
+			cache.putMissing(path);
+		}
+		statusLoaded = true;
+		return status;
+	}
+
+	/**
+	 * Forget the status of the object after it is changed
+	 *
+	 * @param recursive forget the cached status of the objects under a directory too
+	 */
+	private void resetFileStatus(boolean recursive) {
+		status = null;
+		statusLoaded = false;
+		cache.invalidate(path, recursive);
 	}
 
 	/**
@@ -62,12 +159,12 @@ public class HdfsFtpFile implements FtpFile {
 	}
 
 	/**
-	 * HDFS has no hidden objects
+	 * HDFS has no hidden objects, only the temporary parts of a running SITE COPY are hidden
 	 *
-	 * @return always false
+	 * @return true if the object is a part of a copy
 	 */
 	public boolean isHidden() {
-		return false;
+		return HdfsParallelCopy.isPart(getName());
 	}
 
 	/**
@@ -78,29 +175,31 @@ public class HdfsFtpFile implements FtpFile {
 	public boolean isDirectory() {
 		try {
 			log.debug("isDirectory(): {} .", path);
-			FileStatus fs = hdfs.getFileStatus(path);
-			return fs.isDirectory();
+			FileStatus fs = getFileStatus();
+			return fs != null && fs.isDirectory();
 		} catch (IOException e) {
-			log.error("isDirectory(): " + path + "  is not dir.", e);
-			e.printStackTrace();
+			errors.error("isDirectory(): {} is not dir.", path, e);
 			return false;
 		}
 	}
 
 	/**
-	 * Get HDFS permissions
+	 * Checks the HDFS permission bits of the status for the user, the owner bits apply to the owner,
+	 * the group bits to members of the group and the other bits to everyone else
 	 *
-	 * @return HDFS permissions as a FsPermission instance
-	 * @throws IOException if path doesn't exist so we get permissions of parent object in that case
+	 * @param fs status of the object
+	 * @param action action to check
+	 * @param user the user
+	 * @return true if the action is allowed
 	 */
-	private FsPermission getPermissions() throws IOException {
-		try {
-			log.debug("getPermissions(): {} .", path);
-			return hdfs.getFileStatus(path).getPermission();
-		} catch (IOException e) {
-			log.error("getPermissions(): " + path + " error.", e);
-			e.printStackTrace();
-			return null;
+	static boolean checkPermission(FileStatus fs, FsAction action, HdFtpUser user) {
+		FsPermission permission = fs.getPermission();
+		if (user.getName().equals(fs.getOwner())) {
+			return permission.getUserAction().implies(action);
+		} else if (user.getGroup() != null && user.getGroup().equals(fs.getGroup())) {
+			return permission.getGroupAction().implies(action);
+		} else {
+			return permission.getOtherAction().implies(action);
 		}
 	}
 
@@ -112,10 +211,10 @@ public class HdfsFtpFile implements FtpFile {
 	public boolean isFile() {
 		try {
 			log.debug("isFile(): {} .", path);
-			return hdfs.isFile(path);
+			FileStatus fs = getFileStatus();
+			return fs != null && fs.isFile();
 		} catch (IOException e) {
-			log.error("isFile(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("isFile(): {} error.", path, e);
 			return false;
 		}
 	}
@@ -128,10 +227,9 @@ public class HdfsFtpFile implements FtpFile {
 	public boolean doesExist() {
 		try {
 			log.debug("doesExist(): {}", path);
-			return hdfs.exists(path);
+			return getFileStatus() != null;
 		} catch (IOException e) {
-			log.error("doesExist(): " + path +" error.", e);
-			e.printStackTrace();
+			errors.error("doesExist(): {} error.", path, e);
 			return false;
 		}
 	}
@@ -144,28 +242,15 @@ public class HdfsFtpFile implements FtpFile {
 	public boolean isReadable() {
 		try {
 			log.debug("isReadable(): {} .", path);
-			FsPermission permissions = getPermissions();
-			if (user.getName().equals(getOwnerName())) {
-				if (permissions.toString().substring(0, 1).equals("r")) {
-				  log.debug("isReadable(): " + path + " - " + " read allowed for user.");
-				  return true;
-				}
-			} else if (user.getGroup() == getGroupName()) {
-				if (permissions.toString().substring(3, 4).equals("r")) {
-				  log.debug("isReadable(): " + path + " - " + " read allowed for group.");
-				  return true;
-				}
-			} else if(permissions != null){
-				if (permissions.toString().substring(6, 7).equals("r")) {
-				  log.debug("isReadable(): " + path + " - " + " read allowed for others.");
-				  return true;
-				}
+			FileStatus fs = getFileStatus();
+			if (fs != null && checkPermission(fs, FsAction.READ, user)) {
+				log.debug("isReadable(): {} - read allowed.", path);
+				return true;
 			}
-			log.debug("isReadable(): " + path + " - " + " read denied.");
+			log.debug("isReadable(): {} - read denied.", path);
 			return false;
 		} catch (IOException e) {
-			log.error("isReadable(): " + path + " error.", e);
-			e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+			errors.error("isReadable(): {} error.", path, e);
 			return false;
 		}
 	}
@@ -173,11 +258,12 @@ public class HdfsFtpFile implements FtpFile {
 	private HdfsFtpFile getParent() {
 		log.debug("getParent(): {} .", path);
 		String parentS = abspath.substring(0, abspath.lastIndexOf("/") + 1);
-		return new HdfsFtpFile(hdfs, parentS, user);
+		return new HdfsFtpFile(view, parentS);
 	}
 
 	/**
-	 * Checks if the user has a write permission on the object
+	 * Checks if the user has a write permission on the object, a new object needs write permission
+	 * on its parent directory
 	 *
 	 * @return true if the user has write permission on the object
 	 */
@@ -185,29 +271,22 @@ public class HdfsFtpFile implements FtpFile {
 		log.debug("isWriteable(): {} .", path);
 		if(user.authorize(new WriteRequest()) == null) return false;
 		try {
-			if (!hdfs.exists(path)) return getParent().isWritable();
-			FsPermission permissions = getPermissions();
-			if (user.getName().equals(getOwnerName())) {
-				if (permissions.toString().substring(1, 2).equals("w")) {
-				  log.debug("isWriteable(): " + path + " - " + " write allowed for user.");
-				  return true;
-				}
-			} else if (user.getGroup() == getGroupName()) {
-				if (permissions.toString().substring(4, 5).equals("w")) {
-				  log.debug("isWriteable(): " + path + " - " + " write allowed for group.");
-				  return true;
-				}
-			} else if (permissions != null) {
-				if (permissions.toString().substring(7, 8).equals("w")) {
-				  log.debug("isWriteable(): " + path + " - " + " write allowed for others.");
-				  return true;
+			FileStatus fs = getFileStatus();
+			if (fs == null) {
+				fs = getParent().getFileStatus();
+				if (fs == null || !fs.isDirectory()) {
+					log.debug("isWriteable(): {} - parent doesn't exist.", path);
+					return false;
 				}
 			}
-			log.debug("isWriteable(): " + path + " - " + " write denied.");
+			if (checkPermission(fs, FsAction.WRITE, user)) {
+				log.debug("isWriteable(): {} - write allowed.", path);
+				return true;
+			}
+			log.debug("isWriteable(): {} - write denied.", path);
 			return false;
 		} catch (IOException e) {
-			log.error("isWriteable(): " + path + " error.", e);
-			e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+			errors.error("isWriteable(): {} error.", path, e);
 			return false;
 		}
 	}
@@ -229,11 +308,10 @@ public class HdfsFtpFile implements FtpFile {
 	public String getOwnerName() {
 		try {
 			log.debug("getOwnerName(): {} .", path);
-			FileStatus fs = hdfs.getFileStatus(path);
-			return fs.getOwner();
+			FileStatus fs = getFileStatus();
+			return fs == null ? null : fs.getOwner();
 		} catch (IOException e) {
-			log.error("getOwnerName(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("getOwnerName(): {} error.", path, e);
 			return null;
 		}
 	}
@@ -246,11 +324,26 @@ public class HdfsFtpFile implements FtpFile {
 	public String getGroupName() {
 		try {
 			log.debug("getGroupName(): {} .", path);
-			FileStatus fs = hdfs.getFileStatus(path);
-			return fs.getGroup();
+			FileStatus fs = getFileStatus();
+			return fs == null ? null : fs.getGroup();
+		} catch (IOException e) {
+			errors.error("getGroupName(): {} error.", path, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Get HDFS permission of the object
+	 *
+	 * @return permission of the object, null if it doesn't exist
+	 */
+	FsPermission getPermission() {
+		try {
+			log.debug("getPermission(): {} .", path);
+			FileStatus fs = getFileStatus();
+			return fs == null ? null : fs.getPermission();
 		} catch (IOException e) {
-			log.error("getGroupName(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("getPermission(): {} error.", path, e);
 			return null;
 		}
 	}
@@ -272,11 +365,10 @@ public class HdfsFtpFile implements FtpFile {
 	public long getLastModified() {
 		try {
 			log.debug("getLastModified(): {} .", path);
-			FileStatus fs = hdfs.getFileStatus(path);
-			return fs.getModificationTime();
+			FileStatus fs = getFileStatus();
+			return fs == null ? 0 : fs.getModificationTime();
 		} catch (IOException e) {
-			log.error("getLastModified(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("getLastModified(): {} error.", path, e);
 			return 0;
 		}
 	}
@@ -289,15 +381,34 @@ public class HdfsFtpFile implements FtpFile {
 	public long getSize() {
 		try {
 			log.debug("getSize(): {} .", path);
-			FileStatus fs = hdfs.getFileStatus(path);
-			return fs.getLen();
+			FileStatus fs = getFileStatus();
+			return fs == null ? 0 : fs.getLen();
 		} catch (IOException e) {
-			log.error("getSize(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("getSize(): {} error.", path, e);
 			return 0;
 		}
 	}
 
+	/**
+	 * Set owner and group of a created object. An object created by the FileSystem of the proxy user
+	 * is already owned by the user and inherits the group of the parent directory,
+	 * so the group is only set if it differs from the user's group.
+	 *
+	 * @throws IOException
+	 */
+	private void setOwner() throws IOException {
+		if (userFs == hdfs) {
+			HdFtpMetrics.rpc("setOwner");
+			hdfs.setOwner(path, user.getName(), user.getGroup());
+			return;
+		}
+		FileStatus parent = getParent().getFileStatus();
+		if (user.getGroup() != null && (parent == null || !user.getGroup().equals(parent.getGroup()))) {
+			HdFtpMetrics.rpc("setOwner");
+			hdfs.setOwner(path, null, user.getGroup());
+		}
+	}
+
 	/**
 	 * Create a new directory from the object
 	 *
@@ -306,15 +417,16 @@ public class HdfsFtpFile implements FtpFile {
 	public boolean mkdir() {
 		try {
 			log.debug("mkdir(): {} .", path);
-			if (hdfs.mkdirs(path)) {
-				hdfs.setOwner(path, user.getName(), user.getGroup());
+			resetFileStatus(false);
+			HdFtpMetrics.rpc("mkdirs");
+			if (userFs.mkdirs(path)) {
+				setOwner();
 				return true;
 			} else {
 				return false;
 			}
 		} catch (IOException e) {
-			log.error("mkdir(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("mkdir(): {} error.", path, e);
 			return false;
 		}
 	}
@@ -328,10 +440,23 @@ public class HdfsFtpFile implements FtpFile {
 		log.debug("delete(): {} .", path);
 		if(doesExist() == false) return false;
 		try {
+			boolean directory = isDirectory();
+			resetFileStatus(true);
+			HdfsAsyncDeleter deleter = view.getAsyncDeleter();
+			if (directory && deleter != null) {
+				try {
+					if (deleter.delete(path)) {
+						return true;
+					}
+				} catch (IOException e) {
+					// e.g. an encryption zone or a quota, deleted at once below
+					errors.warn("delete(): {} not moved to the trash, delete it at once.", path, e);
+				}
+			}
+			HdFtpMetrics.rpc("delete");
 			return hdfs.delete(path, true);
 		} catch (IOException e) {
-			log.error("delete(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("delete(): {} error.", path, e);
 			return false;
 		}
 	}
@@ -344,15 +469,53 @@ public class HdfsFtpFile implements FtpFile {
 	 */
 	public boolean move(FtpFile fileObject) {
 		try {
-			log.debug("move(): srcPath: {}, destPath: {}{} .", path, user.getHomeDirectory(), fileObject.getAbsolutePath());
-			return hdfs.rename(path, new Path(user.getHomeDirectory() + fileObject.getAbsolutePath()));
+			if (log.isDebugEnabled()) {
+				log.debug("move(): srcPath: {}, destPath: {}{} .", path, user.getHomeDirectory(), fileObject.getAbsolutePath());
+			}
+			Path dest = new Path(user.getHomeDirectory() + fileObject.getAbsolutePath());
+			resetFileStatus(true);
+			cache.invalidate(dest, true);
+			HdFtpMetrics.rpc("rename");
+			return hdfs.rename(path, dest);
 		} catch (IOException e) {
-			log.error("move(): srcPath:" + path + ", destPath:" + user.getHomeDirectory() + fileObject.getAbsolutePath() + " error.", e);
-			e.printStackTrace();
+			errors.error("move(): srcPath: {}, destPath: {}{} error.", path, user.getHomeDirectory(), fileObject.getAbsolutePath(), e);
 			return false;
 		}
 	}
 
+	/**
+	 * Copy the file inside HDFS, ranges of whole blocks are copied in parallel
+	 *
+	 * @param dst target file, an existing file is overwritten
+	 * @param listener listener of the progress, may be null
+	 * @return number of ranges copied in parallel
+	 * @throws IOException if the source is not a readable file or the target is not writable
+	 */
+	int copyTo(HdfsFtpFile dst, HdfsParallelCopy.ProgressListener listener) throws IOException {
+		log.debug("copyTo(): srcPath: {}, destPath: {} .", path, dst.path);
+		// the copy is sized by the status, a cached one may miss data appended since
+		FileStatus fs = getFreshFileStatus();
+		if (fs == null || !fs.isFile()) {
+			throw new FileNotFoundException("Not a file : " + path);
+		}
+		if (!isReadable()) {
+			throw new IOException("No read permission : " + path);
+		}
+		if (dst.path.equals(path) || dst.isDirectory() || !dst.isWritable()) {
+			throw new IOException("No write permission : " + dst.path);
+		}
+		HdfsParallelCopy copy = new HdfsParallelCopy(hdfs, dst.userFs, view.getTransferExecutor(),
+				view.getCopyParallelism(), view.getBufferSize());
+		copy.setProgressListener(listener);
+		try {
+			int parts = copy.copy(fs, dst.path);
+			dst.setOwner();
+			return parts;
+		} finally {
+			dst.resetFileStatus(false);
+		}
+	}
+
 	/**
 	 * List files of the directory
 	 *
@@ -363,52 +526,177 @@ public class HdfsFtpFile implements FtpFile {
 			log.debug("listFiles(): No read permission : {} .", path);
 			return null;
 		}
-		log.debug("listFiles() : " + path);
+		log.debug("listFiles(): {} .", path);
 		try {
-			FileStatus fileStats[] = hdfs.listStatus(path);
+			FileStatus fileStats[] = cache.getListing(path);
+			if (fileStats == null) {
+				HdFtpMetrics.rpc("listStatus");
+				fileStats = hdfs.listStatus(path);
+				// a getListing RPC fetched each further page
+				int pageSize = view.getListingPageSize();
+				for (int i = pageSize; pageSize > 0 && i < fileStats.length; i += pageSize) {
+					HdFtpMetrics.rpc("listStatus");
+				}
+				cache.putListing(path, fileStats);
+			}
 
 			List<FtpFile> fileObjects = new ArrayList<FtpFile>();
 			for (int i = 0; i < fileStats.length; i++) {
-				String path = fileStats[i].getPath().toString();
-				String userHome = user.getHomeDirectory();
-				if(path.startsWith("hdfs://"))
-					path = path.substring(path.indexOf("/", 7));
-				path = path.substring(userHome.length());
-				fileObjects.add(new HdfsFtpFile(hdfs, path, user));
+				fileObjects.add(toFtpFile(fileStats[i]));
 			}
 			return fileObjects;
 		} catch (IOException e) {
-			log.error("listFiles(): " + path, e);
-			e.printStackTrace();
+			errors.error("listFiles(): {} error.", path, e);
+			return null;
+		}
+	}
+
+	/**
+	 * List files of the directory page by page, HDFS returns the entries in batches of dfs.ls.limit
+	 * so the whole directory is never held in memory
+	 *
+	 * @return iterator of files in the directory, null if the user can't read the directory
+	 * @throws IOException
+	 */
+	public RemoteIterator<FtpFile> listFilesIterator() throws IOException {
+		if (!isReadable()) {
+			log.debug("listFilesIterator(): No read permission : {} .", path);
 			return null;
 		}
+		log.debug("listFilesIterator() : {} .", path);
+		final FileStatus[] cached = cache.getListing(path);
+		if (cached != null) {
+			return new RemoteIterator<FtpFile>() {
+				private int i = 0;
+
+				public boolean hasNext() {
+					return i < cached.length;
+				}
+
+				public FtpFile next() {
+					return toFtpFile(cached[i++]);
+				}
+			};
+		}
+
+		// small directories are collected while they are listed to fill the cache
+		HdFtpMetrics.rpc("listStatusIterator");
+		final RemoteIterator<FileStatus> fileStats = hdfs.listStatusIterator(path);
+		final int pageSize = view.getListingPageSize();
+		return new RemoteIterator<FtpFile>() {
+			private List<FileStatus> listing = cache.isEnabled() ? new ArrayList<FileStatus>() : null;
+			private long entries = 0;
+
+			public boolean hasNext() throws IOException {
+				boolean hasNext = fileStats.hasNext();
+				if (!hasNext && listing != null) {
+					cache.putListing(path, listing.toArray(new FileStatus[listing.size()]));
+					listing = null;
+				}
+				return hasNext;
+			}
+
+			public FtpFile next() throws IOException {
+				FileStatus fileStat = fileStats.next();
+				// the first entry of each further page was fetched by another getListing RPC
+				if (pageSize > 0 && entries > 0 && entries % pageSize == 0) {
+					HdFtpMetrics.rpc("listStatusIterator");
+				}
+				entries++;
+				if (listing != null) {
+					if (listing.size() < cache.getMaxListing())
+						listing.add(fileStat);
+					else
+						listing = null;
+				}
+				return toFtpFile(fileStat);
+			}
+		};
+	}
+
+	/**
+	 * Create the object of a directory entry
+	 *
+	 * @param fileStat status of the entry
+	 * @return object of the entry
+	 */
+	private HdfsFtpFile toFtpFile(FileStatus fileStat) {
+		String path = fileStat.getPath().toUri().getPath();
+		String userHome = user.getHomeDirectory();
+		path = path.substring(userHome.length());
+		return new HdfsFtpFile(view, path, fileStat);
 	}
 
 	/**
 	 * Creates output stream to write to the object
 	 *
-	 * @param offset is not used here
+	 * @param offset position to start writing from, set by REST or APPE. 0 creates a new file,
+	 *        otherwise it has to be the current length of the file which is appended
 	 * @return OutputStream
 	 * @throws IOException
 	 */
 	public OutputStream createOutputStream(final long offset) throws IOException {
-		log.debug("createOutputStream(): {} .", path);
+		if (log.isDebugEnabled()) {
+			log.debug("createOutputStream(): {}, offset: {} .", path, offset);
+		}
 		// permission check
 		if (!isWritable()) {
 			throw new IOException("No write permission : " + path);
 		}
 
+		if (offset > 0) {
+			// a cached length may miss data written by another session or HDFS client
+			FileStatus fs = getFreshFileStatus();
+			if (fs == null || !fs.isFile()) {
+				throw new IOException("Cannot resume upload, not a file : " + path);
+			}
+			if (fs.getLen() != offset) {
+				throw new IOException("Cannot resume upload, offset " + offset + " doesn't match file length " + fs.getLen() + " : " + path);
+			}
+		}
+
 		try {
+			resetFileStatus(false);
+			int bufferSize = view.getBufferSize();
 			FSDataOutputStream os;
-			if (user.getFileReplication() == (short) 0)
-				os = hdfs.create(path);
-			else
-				os = hdfs.create(path, user.getFileReplication());
-			hdfs.setOwner(path, user.getName(), user.getGroup());
-			return os;
+			if (offset > 0) {
+				HdFtpMetrics.rpc("append");
+				os = userFs.append(path, bufferSize);
+			} else {
+				short replication = user.getFileReplication();
+				if (replication == (short) 0)
+					replication = userFs.getDefaultReplication(path);
+				HdFtpMetrics.rpc("create");
+				os = userFs.create(path, true, bufferSize, replication, userFs.getDefaultBlockSize(path));
+				setOwner();
+			}
+			int writeBehindDepth = view.getWriteBehindDepth();
+			if (writeBehindDepth > 0) {
+				OutputStream wb;
+				try {
+					wb = new HdfsWriteBehindOutputStream(os, path.toString(), view.getTransferExecutor(),
+							view.getBufferPool(), view.getTransferStats(), writeBehindDepth, bufferSize);
+				} catch (IOException e) {
+					os.close();
+					throw e;
+				}
+				// the write behind buffers the upload, this buffer only collects single bytes
+				return new CacheInvalidatingOutputStream(wb, null, SMALL_BUFFER_SIZE);
+			}
+			HdfsBufferPool pool = view.getBufferPool();
+			try {
+				// the buffer is taken from the pool, so a transfer doesn't allocate its own
+				return new CacheInvalidatingOutputStream(os, pool, pool != null ? bufferSize : SMALL_BUFFER_SIZE);
+			} catch (IOException e) {
+				os.close();
+				throw e;
+			}
+		} catch (HdfsBufferPool.WaitTimeoutException e) {
+			// the client gets 426 and can try again
+			errors.error("createOutputStream(): {} error.", path, e);
+			throw e;
 		} catch (IOException e) {
-			log.error("createOutputStream(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("createOutputStream(): {} error.", path, e);
 			return null;
 		}
 	}
@@ -416,25 +704,126 @@ public class HdfsFtpFile implements FtpFile {
 	/**
 	 * Creates input stream to read from the object
 	 *
-	 * @param offset is not used here
-	 * @return OutputStream
+	 * @param offset position to start reading from, set by REST
+	 * @return InputStream
 	 * @throws IOException
 	 */
 	public InputStream createInputStream(final long offset) throws IOException {
-		log.debug("createInputStream(): {} .", path);
+		if (log.isDebugEnabled()) {
+			log.debug("createInputStream(): {}, offset: {} .", path, offset);
+		}
 		// permission check
 		if (!isReadable()) {
 			throw new IOException("No read permission : " + path);
 		}
+		FSDataInputStream is = null;
 		try {
-			return hdfs.open(path);
+			int bufferSize = view.getBufferSize();
+			HdFtpMetrics.rpc("open");
+			is = hdfs.open(path, bufferSize);
+			if (offset > 0) {
+				is.seek(offset);
+			}
+			int readAheadDepth = view.getReadAheadDepth();
+			if (readAheadDepth > 0) {
+				return new HdfsReadAheadInputStream(is, path.toString(), view.getTransferExecutor(),
+						view.getBufferPool(), view.getTransferStats(), readAheadDepth, bufferSize);
+			}
+			// the transfer reads through this buffer, so HDFS is read in chunks of the buffer size,
+			// it is taken from the pool, so a transfer doesn't allocate its own
+			HdfsBufferPool pool = view.getBufferPool();
+			if (pool == null) {
+				return new BufferedInputStream(is, SMALL_BUFFER_SIZE);
+			}
+			return new PooledInputStream(is, pool, bufferSize);
 		} catch (IOException e) {
-			log.error("createInputStream(): " + path + " error.", e);
-			e.printStackTrace();
+			errors.error("createInputStream(): {}, offset: {} error.", path, offset, e);
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException ex) {}
+			}
+			if (e instanceof HdfsBufferPool.WaitTimeoutException) {
+				// the client gets 426 and can try again
+				throw e;
+			}
 			return null;
 		}
 	}
 
+	/**
+	 * Get checksum of the file. The HDFS algorithm is the checksum of the DataNodes which sends no file data,
+	 * the other algorithms hash the content of the file. Checksums are cached by path, length and modification time
+	 * of an uncached status, so a file changed since it was cached is hashed again.
+	 *
+	 * @param algorithm HDFS, MD5, SHA-1, SHA-256 or CRC32
+	 * @return algorithm name and hex checksum, null if it's not a readable file
+	 * @throws IOException
+	 */
+	String[] getChecksum(String algorithm) throws IOException {
+		log.debug("getChecksum(): {}, algorithm: {} .", path, algorithm);
+		FileStatus fs = getFreshFileStatus();
+		if (fs == null || !fs.isFile() || !isReadable()) {
+			return null;
+		}
+		HdfsChecksumCache checksums = view.getChecksumCache();
+		String[] checksum = checksums.get(fs, algorithm);
+		if (checksum != null) {
+			return checksum;
+		}
+		if (HdfsChecksumCache.HDFS_ALGORITHM.equals(algorithm)) {
+			HdFtpMetrics.rpc("getFileChecksum");
+			FileChecksum fileChecksum = hdfs.getFileChecksum(path);
+			if (fileChecksum != null) {
+				checksum = new String[] { fileChecksum.getAlgorithmName(),
+						StringUtils.byteToHexString(fileChecksum.getBytes(), 0, fileChecksum.getLength()) };
+			} else {
+				// the file system has no checksum of its own
+				checksum = new String[] { "MD5", hashContent("MD5") };
+			}
+		} else {
+			checksum = new String[] { algorithm, hashContent(algorithm) };
+		}
+		FileStatus after = getFreshFileStatus();
+		if (after != null && after.getLen() == fs.getLen() && after.getModificationTime() == fs.getModificationTime()) {
+			checksums.put(fs, algorithm, checksum);
+		} else {
+			// the file changed while it was hashed, the checksum is of neither version
+			log.debug("getChecksum(): {} changed while hashed, not cached.", path);
+		}
+		return checksum;
+	}
+
+	/**
+	 * Hash the content of the file
+	 */
+	private String hashContent(String algorithm) throws IOException {
+		InputStream is = createInputStream(0);
+		if (is == null) {
+			throw new IOException("Cannot read : " + path);
+		}
+		try {
+			byte[] buf = HdfsBufferPool.getScratch();
+			int n;
+			if ("CRC32".equals(algorithm)) {
+				CRC32 crc = new CRC32();
+				while ((n = is.read(buf)) > 0) {
+					crc.update(buf, 0, n);
+				}
+				return String.format("%08x", crc.getValue());
+			}
+			MessageDigest digest = MessageDigest.getInstance(algorithm);
+			while ((n = is.read(buf)) > 0) {
+				digest.update(buf, 0, n);
+			}
+			return StringUtils.byteToHexString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unknown checksum algorithm : " + algorithm, e);
+		} finally {
+			is.close();
+		}
+	}
+
 	/**
 	 * Set file last modify time
 	 */
@@ -443,12 +832,82 @@ public class HdfsFtpFile implements FtpFile {
 		try {
 			log.debug("setLastModified(): {} .", path);
 			//long atime = hdfs.getFileStatus(path).getAccessTime();
+			resetFileStatus(false);
+			HdFtpMetrics.rpc("setTimes");
 			hdfs.setTimes(path, mtime, mtime);
 			return true;
 		} catch (IOException e) {
-			log.error("setLastModified(): " + path, e);
-			e.printStackTrace();
+			errors.error("setLastModified(): {} error.", path, e);
 			return false;
 		}
 	}
+
+	/**
+	 * Buffers the upload in chunks of the buffer size, the transfer writes through this buffer.
+	 * Invalidates the cached status when the upload is finished, the length of the file has changed
+	 */
+	private class CacheInvalidatingOutputStream extends BufferedOutputStream {
+
+		private HdfsBufferPool pool;
+
+		private byte[] pooled;
+
+		/**
+		 * @param pool pool the buffer is taken from, null allocates it
+		 */
+		CacheInvalidatingOutputStream(OutputStream out, HdfsBufferPool pool, int bufferSize) throws IOException {
+			super(out, pool == null ? bufferSize : 1);
+			if (pool != null) {
+				this.pool = pool;
+				this.pooled = pool.acquireArray(bufferSize);
+				this.buf = pooled;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				cache.invalidate(path, false);
+				synchronized (this) {
+					if (pooled != null) {
+						pool.releaseArray(pooled);
+						pooled = null;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Buffered input stream with a buffer from the pool, released when the stream is closed
+	 */
+	private static class PooledInputStream extends BufferedInputStream {
+
+		private HdfsBufferPool pool;
+
+		private byte[] pooled;
+
+		PooledInputStream(InputStream in, HdfsBufferPool pool, int bufferSize) throws IOException {
+			super(in, 1);
+			this.pool = pool;
+			this.pooled = pool.acquireArray(bufferSize);
+			this.buf = pooled;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				synchronized (this) {
+					if (pooled != null) {
+						pool.releaseArray(pooled);
+						pooled = null;
+					}
+				}
+			}
+		}
+	}
 }
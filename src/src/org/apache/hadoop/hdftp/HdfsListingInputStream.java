@@ -0,0 +1,109 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Formats a directory listing page by page while the data connection reads it,
+ * only one page of entries is kept in memory
+ */
+public class HdfsListingInputStream extends InputStream {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private RemoteIterator<FtpFile> files;
+
+	private FileFilter filter;
+
+	private FileFormater formater;
+
+	private int pageSize;
+
+	private byte[] page = new byte[0];
+
+	private int pos = 0;
+
+	/**
+	 * Constructor - set the entries and how they are formatted
+	 *
+	 * @param files entries of the directory, null is an empty listing
+	 * @param filter accepted entries, null accepts all entries
+	 * @param formater formater of the entries
+	 * @param pageSize number of entries formatted at once
+	 */
+	public HdfsListingInputStream(RemoteIterator<FtpFile> files, FileFilter filter, FileFormater formater, int pageSize) {
+		this.files = files;
+		this.filter = filter;
+		this.formater = formater;
+		this.pageSize = pageSize > 0 ? pageSize : 1;
+	}
+
+	/**
+	 * Format the next page of entries
+	 *
+	 * @return false if there are no more entries
+	 * @throws IOException
+	 */
+	private boolean nextPage() throws IOException {
+		if (files == null) {
+			return false;
+		}
+		StringBuilder sb = new StringBuilder();
+		int count = 0;
+		while (count < pageSize && files.hasNext()) {
+			FtpFile file = files.next();
+			if (file == null || (filter != null && !filter.accept(file))) {
+				continue;
+			}
+			sb.append(formater.format(file));
+			count++;
+		}
+		if (count == 0) {
+			files = null;
+			return false;
+		}
+		page = sb.toString().getBytes(UTF_8);
+		pos = 0;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos >= page.length && !nextPage()) {
+			return -1;
+		}
+		return page[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (pos >= page.length && !nextPage()) {
+			return -1;
+		}
+		int n = Math.min(len, page.length - pos);
+		System.arraycopy(page, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return page.length - pos;
+	}
+
+	@Override
+	public void close() {
+		files = null;
+		page = new byte[0];
+		pos = 0;
+	}
+}
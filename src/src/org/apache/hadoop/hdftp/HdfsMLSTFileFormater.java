@@ -0,0 +1,114 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.util.DateUtils;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+/**
+ * Formats the MLST and MLSD facts of a file (RFC 3659) with the UNIX.mode, UNIX.owner and UNIX.group facts
+ * of the HDFS file status. All facts are read from the status the file was listed or looked up with.
+ */
+public class HdfsMLSTFileFormater implements FileFormater {
+
+	/**
+	 * Facts which can be selected by OPTS MLST
+	 */
+	public static final String[] AVAILABLE_TYPES = { "Size", "Modify", "Type", "Perm", "UNIX.mode", "UNIX.owner", "UNIX.group" };
+
+	/**
+	 * Facts sent until the client selects others
+	 */
+	public static final String[] DEFAULT_TYPES = { "Size", "Modify", "Type", "UNIX.mode", "UNIX.owner", "UNIX.group" };
+
+	private static final String NEWLINE = "\r\n";
+
+	private String[] selectedTypes = DEFAULT_TYPES;
+
+	/**
+	 * Constructor - set the selected facts
+	 *
+	 * @param selectedTypes facts selected by OPTS MLST, null are the default facts
+	 */
+	public HdfsMLSTFileFormater(String[] selectedTypes) {
+		if (selectedTypes != null) {
+			this.selectedTypes = selectedTypes.clone();
+		}
+	}
+
+	/**
+	 * Get the facts of the FEAT reply, the default facts are marked by '*'
+	 */
+	public static String getFeature() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < AVAILABLE_TYPES.length; i++) {
+			sb.append(AVAILABLE_TYPES[i]);
+			for (int j = 0; j < DEFAULT_TYPES.length; j++) {
+				if (DEFAULT_TYPES[j].equals(AVAILABLE_TYPES[i])) {
+					sb.append('*');
+					break;
+				}
+			}
+			sb.append(';');
+		}
+		return sb.toString();
+	}
+
+	public String format(FtpFile file) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < selectedTypes.length; i++) {
+			String type = selectedTypes[i];
+			if (type.equalsIgnoreCase("size")) {
+				sb.append("Size=").append(file.getSize()).append(';');
+			} else if (type.equalsIgnoreCase("modify")) {
+				sb.append("Modify=").append(DateUtils.getFtpDate(file.getLastModified())).append(';');
+			} else if (type.equalsIgnoreCase("type")) {
+				if (file.isFile()) {
+					sb.append("Type=file;");
+				} else if (file.isDirectory()) {
+					sb.append("Type=dir;");
+				}
+			} else if (type.equalsIgnoreCase("perm")) {
+				appendPerm(sb, file);
+			} else if (type.equalsIgnoreCase("unix.mode")) {
+				if (file instanceof HdfsFtpFile) {
+					FsPermission permission = ((HdfsFtpFile) file).getPermission();
+					if (permission != null) {
+						sb.append("UNIX.mode=0").append(Integer.toOctalString(permission.toShort() & 01777)).append(';');
+					}
+				}
+			} else if (type.equalsIgnoreCase("unix.owner")) {
+				if (file.getOwnerName() != null) {
+					sb.append("UNIX.owner=").append(file.getOwnerName()).append(';');
+				}
+			} else if (type.equalsIgnoreCase("unix.group")) {
+				if (file.getGroupName() != null) {
+					sb.append("UNIX.group=").append(file.getGroupName()).append(';');
+				}
+			}
+		}
+		sb.append(' ');
+		sb.append(file.getName());
+		sb.append(NEWLINE);
+		return sb.toString();
+	}
+
+	private void appendPerm(StringBuilder sb, FtpFile file) {
+		sb.append("Perm=");
+		if (file.isReadable()) {
+			if (file.isFile()) {
+				sb.append('r');
+			} else if (file.isDirectory()) {
+				sb.append("el");
+			}
+		}
+		if (file.isWritable()) {
+			if (file.isFile()) {
+				sb.append("adfw");
+			} else if (file.isDirectory()) {
+				sb.append("fpcm");
+			}
+		}
+		sb.append(';');
+	}
+}
@@ -0,0 +1,365 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server-wide cache of HDFS file status and directory listings shared by all FTP sessions.
+ * Entries expire after a TTL, the least recently used entries are evicted when the cache is full,
+ * and the entries of a path are invalidated when this server changes the path.
+ * The entries are kept in concurrent maps so lookups of the sessions don't wait for each other,
+ * the eviction is an approximate LRU by the last access time of the entries.
+ * Paths which don't exist are remembered for a shorter TTL, grouped by their parent directory,
+ * until this server creates something in that directory.
+ */
+public class HdfsMetadataCache {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdfsMetadataCache.class);
+
+	private long ttl;			// time to live of an entry in milliseconds, 0 is disabled
+
+	private long negativeTtl;	// time to live of a missing path in milliseconds, 0 is disabled
+
+	private int maxListing;		// listings with more entries are not cached
+
+	private LruMap statuses;
+
+	private LruMap listings;
+
+	private LruMap missing;		// names of missing paths by parent directory
+
+	private AtomicLong hits = new AtomicLong();
+
+	private AtomicLong misses = new AtomicLong();
+
+	private AtomicLong negativeHits = new AtomicLong();
+
+	private static class CacheEntry {
+		final Object value;
+		final long expires;
+		volatile long accessed;
+
+		CacheEntry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+			this.accessed = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Concurrent map which evicts the least recently accessed entries when it has more than max size entries.
+	 * The eviction sorts the access times, so it evicts a tenth of the entries at once to run seldom
+	 */
+	private static class LruMap {
+		final ConcurrentHashMap<String, CacheEntry> map = new ConcurrentHashMap<String, CacheEntry>();
+		final int maxSize;
+		final ReentrantLock evicting = new ReentrantLock();
+
+		LruMap(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		CacheEntry get(String key) {
+			CacheEntry entry = map.get(key);
+			if (entry != null) {
+				entry.accessed = System.nanoTime();
+			}
+			return entry;
+		}
+
+		void put(String key, CacheEntry entry) {
+			map.put(key, entry);
+			if (map.size() > maxSize) {
+				evict();
+			}
+		}
+
+		private void evict() {
+			// a thread evicting already does the work, and evicts again when more were put meanwhile
+			while (map.size() > maxSize && evicting.tryLock()) {
+				try {
+					evictOldest();
+				} finally {
+					evicting.unlock();
+				}
+			}
+		}
+
+		private void evictOldest() {
+			int size = map.size();
+			if (size <= maxSize) {
+				return;
+			}
+			long[] times = new long[size];
+			int n = 0;
+			for (CacheEntry entry : map.values()) {
+				if (n == times.length) {
+					break;
+				}
+				times[n++] = entry.accessed;
+			}
+			Arrays.sort(times, 0, n);
+			int count = Math.min(n, size - maxSize + maxSize / 10);
+			if (count <= 0) {
+				return;
+			}
+			long oldest = times[count - 1];
+			Iterator<CacheEntry> iter = map.values().iterator();
+			while (count > 0 && iter.hasNext()) {
+				if (iter.next().accessed - oldest <= 0) {
+					iter.remove();
+					count--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Constructor - set the cache limits
+	 *
+	 * @param ttl time to live of an entry in milliseconds, 0 disables the cache
+	 * @param negativeTtl time to live of a missing path in milliseconds, 0 disables the negative cache
+	 * @param maxSize max number of status entries, of listing entries and of directories with missing paths
+	 * @param maxListing max number of files of a cached directory listing
+	 */
+	public HdfsMetadataCache(long ttl, long negativeTtl, int maxSize, int maxListing) {
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.maxListing = maxListing;
+		this.statuses = new LruMap(maxSize);
+		this.listings = new LruMap(maxSize);
+		this.missing = new LruMap(maxSize);
+	}
+
+	/**
+	 * Get the key of a path, the path without scheme and authority
+	 */
+	public static String key(Path path) {
+		return path.toUri().getPath();
+	}
+
+	/**
+	 * Is the cache enabled
+	 */
+	public boolean isEnabled() {
+		return ttl > 0;
+	}
+
+	/**
+	 * Is the negative cache of missing paths enabled
+	 */
+	public boolean isNegativeEnabled() {
+		return negativeTtl > 0;
+	}
+
+	/**
+	 * Get max number of files of a cached directory listing
+	 */
+	public int getMaxListing() {
+		return maxListing;
+	}
+
+	/**
+	 * Get the cached status of a path
+	 *
+	 * @return status, null if it's not cached
+	 */
+	public FileStatus getStatus(Path path) {
+		if (!isEnabled()) {
+			return null;
+		}
+		return (FileStatus) get(statuses, key(path));
+	}
+
+	/**
+	 * Cache the status of a path
+	 */
+	public void putStatus(FileStatus status) {
+		if (!isEnabled()) {
+			return;
+		}
+		put(statuses, key(status.getPath()), status);
+	}
+
+	/**
+	 * Get the cached listing of a directory
+	 *
+	 * @return status of the files in the directory, null if it's not cached
+	 */
+	public FileStatus[] getListing(Path path) {
+		if (!isEnabled()) {
+			return null;
+		}
+		return (FileStatus[]) get(listings, key(path));
+	}
+
+	/**
+	 * Cache the listing of a directory and the status of its files
+	 */
+	public void putListing(Path path, FileStatus[] fileStats) {
+		if (!isEnabled() || fileStats.length > maxListing) {
+			return;
+		}
+		missing.map.remove(key(path));
+		put(listings, key(path), fileStats);
+		for (int i = 0; i < fileStats.length; i++) {
+			put(statuses, key(fileStats[i].getPath()), fileStats[i]);
+		}
+	}
+
+	/**
+	 * Is the path known to be missing
+	 *
+	 * @return true if the path was missing within the negative TTL
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean isMissing(Path path) {
+		Path parent = path.getParent();
+		if (!isNegativeEnabled() || parent == null) {
+			return false;
+		}
+		String key = key(parent);
+		CacheEntry entry = missing.get(key);
+		if (entry == null) {
+			return false;
+		}
+		if (entry.expires < System.currentTimeMillis()) {
+			missing.map.remove(key, entry);
+			return false;
+		}
+		if (((Set<String>) entry.value).contains(path.getName())) {
+			negativeHits.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remember a missing path
+	 */
+	@SuppressWarnings("unchecked")
+	public void putMissing(Path path) {
+		Path parent = path.getParent();
+		if (!isNegativeEnabled() || parent == null) {
+			return;
+		}
+		String key = key(parent);
+		CacheEntry entry = missing.get(key);
+		if (entry == null || entry.expires < System.currentTimeMillis()) {
+			entry = new CacheEntry(Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()),
+					System.currentTimeMillis() + negativeTtl);
+			missing.put(key, entry);
+		}
+		((Set<String>) entry.value).add(path.getName());
+	}
+
+	/**
+	 * Invalidate a changed path, the status and listing of its parent and the missing paths of its parent
+	 *
+	 * @param path changed path
+	 * @param recursive invalidate the entries under the path too, e.g. a deleted or moved directory
+	 */
+	public void invalidate(Path path, boolean recursive) {
+		if (!isEnabled() && !isNegativeEnabled()) {
+			return;
+		}
+		String key = key(path);
+		log.debug("invalidate(): {}, recursive: {} .", key, recursive);
+		statuses.map.remove(key);
+		listings.map.remove(key);
+		missing.map.remove(key);
+		Path parent = path.getParent();
+		if (parent != null) {
+			// the modification time of the parent changes with its entries
+			statuses.map.remove(key(parent));
+			listings.map.remove(key(parent));
+			missing.map.remove(key(parent));
+		}
+		if (recursive) {
+			String prefix = key.endsWith("/") ? key : key + "/";
+			removePrefix(statuses.map, prefix);
+			removePrefix(listings.map, prefix);
+			removePrefix(missing.map, prefix);
+		}
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	public void clear() {
+		statuses.map.clear();
+		listings.map.clear();
+		missing.map.clear();
+	}
+
+	/**
+	 * Get number of lookups answered by the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get number of lookups which have to go to the NameNode
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get number of lookups of missing paths answered by the negative cache
+	 */
+	public long getNegativeHitCount() {
+		return negativeHits.get();
+	}
+
+	/**
+	 * Get number of cached status, listing and missing directory entries
+	 */
+	public int size() {
+		return statuses.map.size() + listings.map.size() + missing.map.size();
+	}
+
+	public String toString() {
+		return "HdfsMetadataCache [size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", negativeHits=" + getNegativeHitCount() + "]";
+	}
+
+	private Object get(LruMap map, String key) {
+		CacheEntry entry = map.get(key);
+		if (entry != null && entry.expires < System.currentTimeMillis()) {
+			map.map.remove(key, entry);
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.value;
+	}
+
+	private void put(LruMap map, String key, Object value) {
+		map.put(key, new CacheEntry(value, System.currentTimeMillis() + ttl));
+	}
+
+	private static void removePrefix(Map<String, CacheEntry> map, String prefix) {
+		Iterator<String> iter = map.keySet().iterator();
+		while (iter.hasNext()) {
+			if (iter.next().startsWith(prefix)) {
+				iter.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package org.apache.hadoop.hdftp;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies a file inside HDFS without sending the data through the FTP client.
+ * The file is split into ranges of whole blocks, the ranges are copied in parallel to the target
+ * and to temporary files next to it, and the temporary files are concatenated to the target.
+ * A file of one block, or a target which isn't on HDFS, is copied by a single stream.
+ * The temporary files have a unique name, so concurrent copies to the same target don't mix,
+ * and they are hidden from listings. The progress is logged and reported to a listener.
+ */
+public class HdfsParallelCopy {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdfsParallelCopy.class);
+
+	private static final long PROGRESS_INTERVAL = 10000;	// milliseconds between progress logs
+
+	private static final String PART_INFIX = ".hdftp-copy-";
+
+	private static final AtomicLong copies = new AtomicLong();
+
+	private FileSystem readFs;
+
+	private FileSystem writeFs;
+
+	private ExecutorService executor;
+
+	private int parallelism;
+
+	private int bufferSize;
+
+	private AtomicLong copied = new AtomicLong();
+
+	private ProgressListener listener = null;
+
+	/**
+	 * Receives the progress of a copy every few seconds
+	 */
+	public interface ProgressListener {
+
+		/**
+		 * @param copied bytes copied so far
+		 * @param length bytes of the file
+		 */
+		void progress(long copied, long length);
+	}
+
+	/**
+	 * Constructor - set the file systems and the parallelism
+	 *
+	 * @param readFs FileSystem which reads the source
+	 * @param writeFs FileSystem which creates the target
+	 * @param executor executor which runs the range copies
+	 * @param parallelism max number of ranges copied in parallel
+	 * @param bufferSize I/O buffer size of the streams
+	 */
+	public HdfsParallelCopy(FileSystem readFs, FileSystem writeFs, ExecutorService executor, int parallelism, int bufferSize) {
+		this.readFs = readFs;
+		this.writeFs = writeFs;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Set the listener of the progress, null is none
+	 */
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Is it the name of a temporary file of a copy
+	 */
+	public static boolean isPart(String name) {
+		return name.startsWith(".") && name.contains(PART_INFIX);
+	}
+
+	/**
+	 * Get number of bytes copied so far
+	 */
+	public long getCopied() {
+		return copied.get();
+	}
+
+	/**
+	 * Copy a file, the target is overwritten
+	 *
+	 * @param src status of the source file
+	 * @param dst target file
+	 * @return number of ranges copied in parallel
+	 * @throws IOException
+	 */
+	public int copy(final FileStatus src, final Path dst) throws IOException {
+		long len = src.getLen();
+		long blockSize = src.getBlockSize();
+		long blocks = (len + blockSize - 1) / blockSize;
+		int parts = (int) Math.min(parallelism, blocks);
+		if (parts <= 1 || !(writeFs instanceof DistributedFileSystem)) {
+			Future<?> future = executor.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					copyRange(src, dst, 0, src.getLen());
+					return null;
+				}
+			});
+			boolean done = false;
+			try {
+				waitFor(Collections.<Future<?>>singletonList(future), src.getPath(), len);
+				done = true;
+			} finally {
+				if (!done) {
+					// copyRange deletes the target when it stops
+					future.cancel(true);
+				}
+			}
+			return 1;
+		}
+		// all ranges but the last have whole blocks, so the concatenated file has only full blocks but the last
+		final long partLength = (blocks + parts - 1) / parts * blockSize;
+		parts = (int) ((len + partLength - 1) / partLength);
+
+		final Path[] targets = new Path[parts];
+		targets[0] = dst;
+		String token = System.currentTimeMillis() + "-" + copies.incrementAndGet();
+		for (int i = 1; i < parts; i++) {
+			targets[i] = new Path(dst.getParent(), "." + dst.getName() + PART_INFIX + token + "-" + i);
+		}
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		boolean done = false;
+		try {
+			for (int i = 0; i < parts; i++) {
+				final int part = i;
+				final long start = part * partLength;
+				final long length = Math.min(partLength, len - start);
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						copyRange(src, targets[part], start, length);
+						return null;
+					}
+				}));
+			}
+			waitFor(futures, src.getPath(), len);
+			Path[] sources = new Path[parts - 1];
+			System.arraycopy(targets, 1, sources, 0, sources.length);
+			((DistributedFileSystem) writeFs).concat(dst, sources);
+			done = true;
+		} finally {
+			if (!done) {
+				for (Future<?> future : futures) {
+					future.cancel(true);
+				}
+				for (int i = 0; i < parts; i++) {
+					try {
+						writeFs.delete(targets[i], false);
+					} catch (IOException e) {
+						log.warn("Delete {} of failed copy error.", targets[i], e);
+					}
+				}
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Wait until all ranges are copied and log the progress
+	 */
+	private void waitFor(List<Future<?>> futures, Path src, long len) throws IOException {
+		for (Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+					break;
+				} catch (TimeoutException e) {
+					log.info("Copy of {}: {} of {} bytes copied.", new Object[] { src, getCopied(), len });
+					if (listener != null) {
+						listener.progress(getCopied(), len);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Copy interrupted : " + src);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException("Copy failed : " + src, e.getCause());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy a range of the source to a new file with the replication and block size of the source,
+	 * the new file is deleted if the copy fails
+	 */
+	private void copyRange(FileStatus src, Path dst, long start, long length) throws IOException {
+		FSDataInputStream in = readFs.open(src.getPath(), bufferSize);
+		try {
+			if (start > 0) {
+				in.seek(start);
+			}
+			FSDataOutputStream out = writeFs.create(dst, true, bufferSize, src.getReplication(), src.getBlockSize());
+			boolean done = false;
+			try {
+				byte[] buf = HdfsBufferPool.getScratch();
+				long remaining = length;
+				while (remaining > 0) {
+					int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+					if (n < 0) {
+						throw new IOException("Unexpected end of " + src.getPath() + " at " + (start + length - remaining));
+					}
+					out.write(buf, 0, n);
+					remaining -= n;
+					copied.addAndGet(n);
+					if (Thread.interrupted()) {
+						throw new IOException("Copy interrupted : " + src.getPath());
+					}
+				}
+				out.close();
+				done = true;
+			} finally {
+				if (!done) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						// the copy failed anyway
+					}
+					try {
+						writeFs.delete(dst, false);
+					} catch (IOException e) {
+						log.warn("Delete {} of failed copy error.", dst, e);
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
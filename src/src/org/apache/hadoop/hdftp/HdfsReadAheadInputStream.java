@@ -0,0 +1,334 @@
+package org.apache.hadoop.hdftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads a HDFS stream ahead in a background thread into a bounded ring of buffers,
+ * so reading from the DataNodes overlaps writing to the data connection.
+ * The time the transfer waited for HDFS and the time the reader waited for the client are measured
+ * and added to the transfer stats when the stream is closed.
+ * If the HDFS stream supports {@link ByteBufferReadable} the buffers are direct and filled by read(ByteBuffer),
+ * with short-circuit local reads the block file is read into them without a copy through a heap array.
+ * The buffers are taken from the buffer pool if there is one, and given back when the stream is closed
+ * and the background reader has stopped.
+ */
+public class HdfsReadAheadInputStream extends InputStream {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdfsReadAheadInputStream.class);
+
+	private static final Chunk END = new Chunk(null, -1);
+
+	private InputStream in;
+
+	private String name;
+
+	private BlockingQueue<Chunk> filled;
+
+	private BlockingQueue<ByteBuffer> free;
+
+	private HdfsBufferPool pool;
+
+	private HdfsTransferStats stats;
+
+	private ByteBuffer[] buffers;
+
+	private boolean byteBufferReadable;
+
+	private Thread readerThread = null;
+
+	private boolean readerDone = false;
+
+	private boolean released = false;
+
+	private ByteBuffer current = null;
+
+	private boolean eof = false;
+
+	private volatile boolean closed = false;
+
+	private volatile IOException error = null;
+
+	private long bytes = 0;
+
+	private long hdfsWaitNanos = 0;			// transfer waited for HDFS
+
+	private volatile long clientWaitNanos = 0;	// reader waited for the transfer to the client
+
+	private static class Chunk {
+		final ByteBuffer buf;
+		final int length;
+
+		Chunk(ByteBuffer buf, int length) {
+			this.buf = buf;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Constructor - start reading ahead
+	 *
+	 * @param in HDFS stream, positioned where the transfer starts
+	 * @param name name of the stream for the transfer metrics
+	 * @param executor executor which runs the background reader
+	 * @param pool pool of the buffers, null allocates them for this stream
+	 * @param stats stats the wait times are added to, may be null
+	 * @param depth number of buffers read ahead
+	 * @param bufferSize size of a buffer in bytes
+	 * @throws IOException if the buffers can't be acquired from the pool
+	 */
+	public HdfsReadAheadInputStream(InputStream in, String name, ExecutorService executor, HdfsBufferPool pool,
+			HdfsTransferStats stats, int depth, int bufferSize) throws IOException {
+		this.in = in;
+		this.name = name;
+		this.pool = pool;
+		this.stats = stats;
+		this.filled = new ArrayBlockingQueue<Chunk>(depth + 1);
+		this.free = new ArrayBlockingQueue<ByteBuffer>(depth);
+		this.byteBufferReadable = isByteBufferReadable(in);
+		if (pool != null) {
+			buffers = pool.acquire(bufferSize, depth);
+		} else {
+			buffers = new ByteBuffer[depth];
+			for (int i = 0; i < depth; i++) {
+				buffers[i] = byteBufferReadable ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			free.add(buffers[i]);
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					if (startReader()) {
+						try {
+							readAhead();
+						} finally {
+							stopReader();
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (pool != null) {
+				pool.release(buffers);
+			}
+			throw new IOException("Cannot start read ahead : " + name, e);
+		}
+	}
+
+	/**
+	 * Can the stream read into a ByteBuffer, FSDataInputStream throws UnsupportedOperationException
+	 * if the wrapped stream can't
+	 */
+	private static boolean isByteBufferReadable(InputStream in) {
+		if (in instanceof FSDataInputStream) {
+			return ((FSDataInputStream) in).getWrappedStream() instanceof ByteBufferReadable;
+		}
+		return in instanceof ByteBufferReadable;
+	}
+
+	private synchronized boolean startReader() {
+		if (closed) {
+			readerDone = true;
+			releaseBuffers();
+			return false;
+		}
+		readerThread = Thread.currentThread();
+		return true;
+	}
+
+	private synchronized void stopReader() {
+		readerThread = null;
+		Thread.interrupted();
+		readerDone = true;
+		releaseBuffers();
+	}
+
+	/**
+	 * Give the buffers back to the pool when the stream is closed and the reader doesn't use them anymore
+	 */
+	private synchronized void releaseBuffers() {
+		if (closed && readerDone && !released && pool != null) {
+			released = true;
+			pool.release(buffers);
+		}
+	}
+
+	/**
+	 * Background reader, fills free buffers until the end of the stream.
+	 * The end is queued whatever stops it, so the transfer never waits for a dead reader.
+	 */
+	private void readAhead() {
+		try {
+			while (!closed) {
+				long start = System.nanoTime();
+				ByteBuffer buf = free.take();
+				clientWaitNanos += System.nanoTime() - start;
+				int n = fill(buf);
+				if (n <= 0) {
+					break;
+				}
+				filled.put(new Chunk(buf, n));
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (IOException e) {
+			if (!closed) {
+				error = e;
+			}
+		} catch (Throwable e) {
+			// e.g. a RuntimeException of the DFS client
+			if (!closed) {
+				log.error("Read ahead of {} failed.", name, e);
+				error = new IOException("Read ahead failed : " + name, e);
+			}
+		} finally {
+			filled.offer(END);
+		}
+	}
+
+	/**
+	 * Read until the buffer is full or the stream ends
+	 */
+	private int fill(ByteBuffer buf) throws IOException {
+		buf.clear();
+		while (buf.hasRemaining()) {
+			int count;
+			if (byteBufferReadable) {
+				count = ((ByteBufferReadable) in).read(buf);
+			} else if (buf.hasArray()) {
+				count = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+				if (count > 0) {
+					buf.position(buf.position() + count);
+				}
+			} else {
+				byte[] scratch = HdfsBufferPool.getScratch();
+				count = in.read(scratch, 0, Math.min(scratch.length, buf.remaining()));
+				if (count > 0) {
+					buf.put(scratch, 0, count);
+				}
+			}
+			if (count <= 0) {
+				break;
+			}
+		}
+		buf.flip();
+		return buf.remaining();
+	}
+
+	/**
+	 * Take the next filled buffer, recycle the current one
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean nextChunk() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (current != null) {
+			free.offer(current);
+			current = null;
+		}
+		Chunk chunk;
+		long start = System.nanoTime();
+		try {
+			chunk = filled.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Read ahead interrupted : " + name);
+		} finally {
+			hdfsWaitNanos += System.nanoTime() - start;
+		}
+		if (chunk == END) {
+			eof = true;
+			if (error != null) {
+				throw error;
+			}
+			return false;
+		}
+		current = chunk.buf;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ((current == null || !current.hasRemaining()) && !nextChunk()) {
+			return -1;
+		}
+		bytes++;
+		return current.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed : " + name);
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if ((current == null || !current.hasRemaining()) && !nextChunk()) {
+			return -1;
+		}
+		int n = Math.min(len, current.remaining());
+		current.get(b, off, n);
+		bytes += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return current == null ? 0 : current.remaining();
+	}
+
+	/**
+	 * Get the milliseconds the transfer waited for HDFS
+	 */
+	public long getHdfsWaitTime() {
+		return hdfsWaitNanos / 1000000;
+	}
+
+	/**
+	 * Get the milliseconds the background reader waited for the transfer to the client
+	 */
+	public long getClientWaitTime() {
+		return clientWaitNanos / 1000000;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		synchronized (this) {
+			closed = true;
+			if (readerThread != null) {
+				readerThread.interrupt();
+			}
+			releaseBuffers();
+		}
+		filled.clear();
+		free.clear();
+		current = null;
+		if (stats != null) {
+			stats.addReadAhead(hdfsWaitNanos, clientWaitNanos);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Read ahead of {} closed: {} bytes, byte buffer reads: {}, waited {} ms for HDFS, {} ms for client .",
+					new Object[] { name, bytes, byteBufferReadable, getHdfsWaitTime(), getClientWaitTime() });
+		}
+		in.close();
+	}
+}
@@ -0,0 +1,78 @@
+package org.apache.hadoop.hdftp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stall times of all read ahead and write behind transfers, each stream adds its times when it is closed.
+ * A transfer waiting for HDFS is limited by the DataNodes, a read ahead waiting for the client by the network.
+ */
+public class HdfsTransferStats {
+
+	private AtomicLong readAheads = new AtomicLong();
+
+	private AtomicLong readAheadHdfsWaitNanos = new AtomicLong();
+
+	private AtomicLong readAheadClientWaitNanos = new AtomicLong();
+
+	private AtomicLong writeBehinds = new AtomicLong();
+
+	private AtomicLong writeBehindHdfsWaitNanos = new AtomicLong();
+
+	/**
+	 * Add the times of a closed read ahead
+	 *
+	 * @param hdfsWaitNanos nanoseconds the transfer waited for HDFS
+	 * @param clientWaitNanos nanoseconds the background reader waited for the transfer to the client
+	 */
+	public void addReadAhead(long hdfsWaitNanos, long clientWaitNanos) {
+		readAheads.incrementAndGet();
+		readAheadHdfsWaitNanos.addAndGet(hdfsWaitNanos);
+		readAheadClientWaitNanos.addAndGet(clientWaitNanos);
+	}
+
+	/**
+	 * Add the time of a closed write behind
+	 *
+	 * @param hdfsWaitNanos nanoseconds the transfer waited for HDFS
+	 */
+	public void addWriteBehind(long hdfsWaitNanos) {
+		writeBehinds.incrementAndGet();
+		writeBehindHdfsWaitNanos.addAndGet(hdfsWaitNanos);
+	}
+
+	public long getReadAheadCount() {
+		return readAheads.get();
+	}
+
+	/**
+	 * Get the milliseconds the read ahead transfers waited for HDFS
+	 */
+	public long getReadAheadHdfsWaitTime() {
+		return readAheadHdfsWaitNanos.get() / 1000000;
+	}
+
+	/**
+	 * Get the milliseconds the background readers waited for the transfers to the clients
+	 */
+	public long getReadAheadClientWaitTime() {
+		return readAheadClientWaitNanos.get() / 1000000;
+	}
+
+	public long getWriteBehindCount() {
+		return writeBehinds.get();
+	}
+
+	/**
+	 * Get the milliseconds the write behind transfers waited for HDFS
+	 */
+	public long getWriteBehindHdfsWaitTime() {
+		return writeBehindHdfsWaitNanos.get() / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		return "HdfsTransferStats [readAheads=" + getReadAheadCount() + ", readAheadHdfsWaitTime=" + getReadAheadHdfsWaitTime()
+				+ ", readAheadClientWaitTime=" + getReadAheadClientWaitTime() + ", writeBehinds=" + getWriteBehindCount()
+				+ ", writeBehindHdfsWaitTime=" + getWriteBehindHdfsWaitTime() + "]";
+	}
+}
@@ -0,0 +1,328 @@
+package org.apache.hadoop.hdftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes an upload to a HDFS stream in a background thread through a bounded queue of buffers,
+ * so a slow DataNode pipeline doesn't stall reading from the data connection until the queue is full.
+ * A write error of the background writer is thrown by the next write, flush or close,
+ * close waits until everything is written so the error reaches the client before the transfer is completed.
+ * The buffers are taken from the buffer pool if there is one, and given back when the stream is closed
+ * and the background writer has stopped.
+ */
+public class HdfsWriteBehindOutputStream extends OutputStream {
+
+	private static final transient Logger log = LoggerFactory.getLogger(HdfsWriteBehindOutputStream.class);
+
+	private static final Chunk END = new Chunk(null, -1);
+
+	private OutputStream out;
+
+	private String name;
+
+	private BlockingQueue<Chunk> filled;
+
+	private BlockingQueue<ByteBuffer> free;
+
+	private Future<?> writer;
+
+	private HdfsBufferPool pool;
+
+	private HdfsTransferStats stats;
+
+	private ByteBuffer[] buffers;
+
+	private ByteBuffer current;
+
+	private boolean closed = false;
+
+	private Thread writerThread = null;
+
+	private boolean aborted = false;
+
+	private boolean writerDone = false;
+
+	private boolean released = false;
+
+	private volatile IOException error = null;
+
+	private long bytes = 0;
+
+	private long hdfsWaitNanos = 0;		// transfer waited for HDFS because the queue was full
+
+	private static class Chunk {
+		final ByteBuffer buf;
+		final int length;
+
+		Chunk(ByteBuffer buf, int length) {
+			this.buf = buf;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Constructor - start the background writer
+	 *
+	 * @param out HDFS stream
+	 * @param name name of the stream for the transfer metrics
+	 * @param executor executor which runs the background writer
+	 * @param pool pool of the buffers, null allocates them for this stream
+	 * @param stats stats the wait time is added to, may be null
+	 * @param depth number of buffers queued for the writer
+	 * @param bufferSize size of a buffer in bytes
+	 * @throws IOException if the buffers can't be acquired from the pool
+	 */
+	public HdfsWriteBehindOutputStream(OutputStream out, String name, ExecutorService executor, HdfsBufferPool pool,
+			HdfsTransferStats stats, int depth, int bufferSize) throws IOException {
+		this.out = out;
+		this.name = name;
+		this.pool = pool;
+		this.stats = stats;
+		this.filled = new ArrayBlockingQueue<Chunk>(depth + 1);
+		this.free = new ArrayBlockingQueue<ByteBuffer>(depth + 1);
+		if (pool != null) {
+			buffers = pool.acquire(bufferSize, depth + 1);
+		} else {
+			buffers = new ByteBuffer[depth + 1];
+			for (int i = 0; i <= depth; i++) {
+				buffers[i] = ByteBuffer.allocate(bufferSize);
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			free.add(buffers[i]);
+		}
+		this.current = buffers[depth];
+		try {
+			this.writer = executor.submit(new Runnable() {
+				public void run() {
+					if (startWriter()) {
+						try {
+							writeBehind();
+						} finally {
+							stopWriter();
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (pool != null) {
+				pool.release(buffers);
+			}
+			throw new IOException("Cannot start write behind : " + name, e);
+		}
+	}
+
+	private synchronized boolean startWriter() {
+		if (aborted) {
+			writerDone = true;
+			releaseBuffers();
+			return false;
+		}
+		writerThread = Thread.currentThread();
+		return true;
+	}
+
+	private synchronized void stopWriter() {
+		writerThread = null;
+		Thread.interrupted();
+		writerDone = true;
+		releaseBuffers();
+	}
+
+	/**
+	 * Give the buffers back to the pool when the stream is closed and the writer doesn't use them anymore
+	 */
+	private synchronized void releaseBuffers() {
+		if (closed && writerDone && !released && pool != null) {
+			released = true;
+			pool.release(buffers);
+		}
+	}
+
+	/**
+	 * Background writer, writes the queued buffers until the end of the upload.
+	 * After an error it keeps taking the buffers so the transfer is never blocked.
+	 */
+	private void writeBehind() {
+		try {
+			while (true) {
+				Chunk chunk = filled.take();
+				if (chunk == END) {
+					break;
+				}
+				if (error == null) {
+					try {
+						writeBuffer(chunk.buf);
+					} catch (IOException e) {
+						error = e;
+					} catch (RuntimeException e) {
+						error = new IOException("Write behind failed : " + name, e);
+					}
+				}
+				free.put(chunk.buf);
+			}
+		} catch (InterruptedException e) {
+			if (error == null) {
+				error = new IOException("Write behind interrupted : " + name);
+			}
+		}
+	}
+
+	/**
+	 * Write a flipped buffer to the HDFS stream, a direct buffer is copied through a scratch array
+	 */
+	private void writeBuffer(ByteBuffer buf) throws IOException {
+		if (buf.hasArray()) {
+			out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+			return;
+		}
+		byte[] scratch = HdfsBufferPool.getScratch();
+		while (buf.hasRemaining()) {
+			int n = Math.min(scratch.length, buf.remaining());
+			buf.get(scratch, 0, n);
+			out.write(scratch, 0, n);
+		}
+	}
+
+	private void checkError() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Queue the current buffer for the writer and take a free one, blocks while the queue is full
+	 */
+	private void queueBuffer() throws IOException {
+		long start = System.nanoTime();
+		try {
+			current.flip();
+			filled.put(new Chunk(current, current.remaining()));
+			current = free.take();
+			current.clear();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Write behind interrupted : " + name);
+		} finally {
+			hdfsWaitNanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed : " + name);
+		}
+		checkError();
+		current.put((byte) b);
+		bytes++;
+		if (!current.hasRemaining()) {
+			queueBuffer();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed : " + name);
+		}
+		checkError();
+		while (len > 0) {
+			int n = Math.min(len, current.remaining());
+			current.put(b, off, n);
+			off += n;
+			len -= n;
+			bytes += n;
+			if (!current.hasRemaining()) {
+				queueBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Queue the buffered bytes for the writer, HDFS is not flushed
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (closed) {
+			return;
+		}
+		checkError();
+		if (current.position() > 0) {
+			queueBuffer();
+		}
+	}
+
+	/**
+	 * Get the milliseconds the transfer waited for HDFS
+	 */
+	public long getHdfsWaitTime() {
+		return hdfsWaitNanos / 1000000;
+	}
+
+	/**
+	 * Wait until everything is written and close the HDFS stream
+	 *
+	 * @throws IOException if the background writer failed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (current.position() > 0 && error == null) {
+				current.flip();
+				filled.put(new Chunk(current, current.remaining()));
+			}
+			filled.put(END);
+			writer.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			synchronized (this) {
+				aborted = true;
+				if (writerThread != null) {
+					writerThread.interrupt();
+				}
+			}
+			if (error == null) {
+				error = new IOException("Write behind interrupted : " + name);
+			}
+		} catch (ExecutionException e) {
+			if (error == null) {
+				error = new IOException("Write behind failed : " + name, e.getCause());
+			}
+		}
+		current = null;
+		free.clear();
+		releaseBuffers();
+		if (stats != null) {
+			stats.addWriteBehind(hdfsWaitNanos);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Write behind of {} closed: {} bytes, waited {} ms for HDFS .", name, bytes, getHdfsWaitTime());
+		}
+
+		if (error != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				log.debug("Close {} after write error failed.", name, e);
+			}
+			throw error;
+		}
+		out.close();
+	}
+}